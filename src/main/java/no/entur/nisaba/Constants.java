@@ -16,8 +16,6 @@
 
 package no.entur.nisaba;
 
-import org.apache.camel.support.builder.Namespaces;
-
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
@@ -40,13 +38,14 @@ public final class Constants {
     public static final String DATASET_LATEST_CREATION_TIME = "EnturDatasetLatestCreationTime";
     public static final String DATASET_CODESPACE = "EnturDatasetCodespace";
     public static final String DATASET_PUBLISHED_FILE_NAME = "EnturDatasetPublishedFileName";
+    public static final String DATASET_BLOB_FINGERPRINT = "EnturDatasetBlobFingerprint";
 
     public static final DateTimeFormatter DATE_TIME_FORMATTER = new DateTimeFormatterBuilder().appendPattern("yyyy-MM-dd'T'HH:mm:ss")
             .optionalStart().appendFraction(ChronoField.MILLI_OF_SECOND, 0, 3, true).optionalEnd()
             .optionalStart().appendPattern("XXXXX")
             .optionalEnd().toFormatter();
 
-    public static final Namespaces XML_NAMESPACE_NETEX = new Namespaces("netex", "http://www.netex.org.uk/netex");
+    public static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
 
     private Constants() {
     }
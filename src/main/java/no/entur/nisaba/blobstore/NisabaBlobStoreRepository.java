@@ -0,0 +1,45 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.blobstore;
+
+import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+
+import java.util.Set;
+
+/**
+ * Blob store operations required by Nisaba in addition to the generic {@link BlobStoreRepository} operations.
+ */
+public interface NisabaBlobStoreRepository extends BlobStoreRepository {
+
+    /**
+     * List the names of the blobs whose name starts with the given prefix.
+     * Only the blob names are retrieved, not the blob content.
+     *
+     * @param prefix the prefix of the blob names, typically a folder name ending with '/'.
+     * @return the full names of the matching blobs.
+     */
+    Set<String> listBlobNames(String prefix);
+
+    /**
+     * Return a fingerprint of the blob content, retrieved from the blob metadata without downloading the blob.
+     * Two versions of a blob with the same fingerprint are considered identical.
+     *
+     * @param objectName the blob name.
+     * @return the blob fingerprint, or null if the blob does not exist.
+     */
+    String getBlobFingerprint(String objectName);
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.blobstore;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.rutebanken.helper.gcp.BlobStoreHelper;
+import org.rutebanken.helper.gcp.repository.GcsBlobStoreRepository;
+
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * Google Cloud Storage blob store repository.
+ */
+public class NisabaGcsBlobStoreRepository extends GcsBlobStoreRepository implements NisabaBlobStoreRepository {
+
+    private final Storage storage;
+    private String containerName;
+
+    public NisabaGcsBlobStoreRepository(String projectId, String credentialPath) {
+        this(createStorage(projectId, credentialPath));
+    }
+
+    /**
+     * The storage client is shared with the parent repository, so that listings and metadata lookups reuse the
+     * connections of the blob downloads.
+     */
+    public NisabaGcsBlobStoreRepository(Storage storage) {
+        super(storage);
+        this.storage = storage;
+    }
+
+    private static Storage createStorage(String projectId, String credentialPath) {
+        if (credentialPath == null || credentialPath.isEmpty()) {
+            return BlobStoreHelper.getStorage(projectId);
+        }
+        return BlobStoreHelper.getStorage(credentialPath, projectId);
+    }
+
+    @Override
+    public void setContainerName(String containerName) {
+        super.setContainerName(containerName);
+        this.containerName = containerName;
+    }
+
+    @Override
+    public Set<String> listBlobNames(String prefix) {
+        Set<String> blobNames = new HashSet<>();
+        for (Blob blob : storage.list(containerName,
+                Storage.BlobListOption.prefix(prefix),
+                Storage.BlobListOption.fields(Storage.BlobField.NAME)).iterateAll()) {
+            blobNames.add(blob.getName());
+        }
+        return blobNames;
+    }
+
+    /**
+     * The fingerprint is the hex-encoded MD5 hash of the blob content, or the blob generation for composite objects that
+     * do not have an MD5 hash.
+     */
+    @Override
+    public String getBlobFingerprint(String objectName) {
+        Blob blob = storage.get(BlobId.of(containerName, objectName),
+                Storage.BlobGetOption.fields(Storage.BlobField.MD5HASH, Storage.BlobField.GENERATION));
+        if (blob == null) {
+            return null;
+        }
+        if (blob.getMd5() != null) {
+            return HexFormat.of().formatHex(Base64.getDecoder().decode(blob.getMd5()));
+        }
+        return String.valueOf(blob.getGeneration());
+    }
+}
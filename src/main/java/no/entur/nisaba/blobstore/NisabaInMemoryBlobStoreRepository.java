@@ -0,0 +1,62 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.blobstore;
+
+import org.rutebanken.helper.storage.repository.InMemoryBlobStoreRepository;
+import org.springframework.util.DigestUtils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory blob store repository for testing purpose.
+ */
+public class NisabaInMemoryBlobStoreRepository extends InMemoryBlobStoreRepository implements NisabaBlobStoreRepository {
+
+    private final Map<String, Map<String, byte[]>> blobsInContainers;
+    private String containerName;
+
+    public NisabaInMemoryBlobStoreRepository(Map<String, Map<String, byte[]>> blobsInContainers) {
+        super(blobsInContainers);
+        this.blobsInContainers = blobsInContainers;
+    }
+
+    @Override
+    public void setContainerName(String containerName) {
+        super.setContainerName(containerName);
+        this.containerName = containerName;
+    }
+
+    @Override
+    public Set<String> listBlobNames(String prefix) {
+        return blobsInContainers.getOrDefault(containerName, Map.of())
+                .keySet()
+                .stream()
+                .filter(name -> name.startsWith(prefix))
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public String getBlobFingerprint(String objectName) {
+        byte[] content = blobsInContainers.getOrDefault(containerName, Map.of()).get(objectName);
+        if (content == null) {
+            return null;
+        }
+        return DigestUtils.md5DigestAsHex(content);
+    }
+}
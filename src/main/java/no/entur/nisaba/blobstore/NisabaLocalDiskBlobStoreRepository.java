@@ -0,0 +1,81 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.blobstore;
+
+import org.rutebanken.helper.storage.repository.LocalDiskBlobStoreRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local disk blob store repository for local development.
+ */
+public class NisabaLocalDiskBlobStoreRepository extends LocalDiskBlobStoreRepository implements NisabaBlobStoreRepository {
+
+    private final String baseFolder;
+    private String containerName;
+
+    public NisabaLocalDiskBlobStoreRepository(String baseFolder) {
+        super(baseFolder);
+        this.baseFolder = baseFolder;
+    }
+
+    @Override
+    public void setContainerName(String containerName) {
+        super.setContainerName(containerName);
+        this.containerName = containerName;
+    }
+
+    @Override
+    public Set<String> listBlobNames(String prefix) {
+        Path containerFolder = Path.of(baseFolder, containerName);
+        if (!Files.isDirectory(containerFolder)) {
+            return Set.of();
+        }
+        try (Stream<Path> files = Files.walk(containerFolder)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> containerFolder.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+                    .filter(name -> name.startsWith(prefix))
+                    .collect(Collectors.toSet());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The local disk does not store a content hash, the fingerprint is made of the file size and modification time.
+     */
+    @Override
+    public String getBlobFingerprint(String objectName) {
+        Path file = Path.of(baseFolder, containerName, objectName);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() + "-" + attributes.lastModifiedTime().toMillis();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -18,22 +18,37 @@ package no.entur.nisaba.config;
 
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import no.entur.nisaba.Constants;
+import no.entur.nisaba.event.KafkaWatermarkStateRepository;
+import no.entur.nisaba.idempotent.MappedFileIdempotentRepository;
+import no.entur.nisaba.importdate.ImportEventOffsetRepository;
+import no.entur.nisaba.netex.NetexArchiveEntryCache;
+import no.entur.nisaba.netex.NetexArchiveScanner;
+import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
+import org.apache.camel.ThreadPoolRejectedPolicy;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
 import org.apache.camel.component.kafka.KafkaConfiguration;
 import org.apache.camel.processor.idempotent.kafka.KafkaIdempotentRepository;
 import org.apache.camel.spi.HeaderFilterStrategy;
 import org.apache.camel.spi.IdempotentRepository;
-import org.apache.camel.support.processor.state.MemoryStateRepository;
+import org.apache.camel.spi.StateRepository;
+import org.apache.camel.spi.ThreadPoolFactory;
+import org.apache.camel.support.processor.state.FileStateRepository;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.config.SaslConfigs;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.util.StringUtils;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 @Configuration
 public class CamelConfig {
@@ -47,13 +62,60 @@ public class CamelConfig {
      * @return an idempotent repository that ientifies duplicate dataset import events.
      */
     @Bean("netexImportEventIdempotentRepo")
-    @Profile("!test")
+    @Profile("!test & !mapped-file-idempotent-repository")
     IdempotentRepository kafkaIdempotentRepository(@Value("${nisaba.kafka.topic.idempotent}") String idempotentTopic,
                                                    @Value("${camel.component.kafka.brokers}") String brokers,
                                                    @Value("${camel.component.kafka.sasl-jaas-config:}") String jaasConfig) {
 
         KafkaConfiguration config = new KafkaConfiguration();
 
+        Properties commonProperties = kafkaIdempotentRepositoryProperties(brokers, jaasConfig);
+
+        Properties producerProperties = config.createProducerProperties();
+        producerProperties.putAll(commonProperties);
+
+        Properties consumerProperties = config.createConsumerProperties();
+        consumerProperties.putAll(commonProperties);
+
+        return new KafkaIdempotentRepository(idempotentTopic, consumerProperties, commonProperties);
+    }
+
+    /**
+     * Store the key of previously imported datasets in a memory-mapped index on the local disk and detect duplicates.
+     * The index is persisted across restarts and only the part of the idempotent topic published since the last
+     * checkpoint is replayed at startup time. Changes are mirrored to the idempotent topic.
+     *
+     * @param idempotentTopic the topic used to store the history of NeTEx import event.
+     * @param brokers         the Kafka brokers.
+     * @param indexFolder     the local folder where the index is stored.
+     * @param initialCapacity the initial number of slots in the index.
+     * @return an idempotent repository that identifies duplicate dataset import events.
+     */
+    @Bean("netexImportEventIdempotentRepo")
+    @Profile("!test & mapped-file-idempotent-repository")
+    IdempotentRepository mappedFileIdempotentRepository(@Value("${nisaba.kafka.topic.idempotent}") String idempotentTopic,
+                                                        @Value("${camel.component.kafka.brokers}") String brokers,
+                                                        @Value("${camel.component.kafka.sasl-jaas-config:}") String jaasConfig,
+                                                        @Value("${nisaba.idempotent.index.folder}") String indexFolder,
+                                                        @Value("${nisaba.idempotent.index.initial.capacity:65536}") int initialCapacity,
+                                                        @Value("${nisaba.idempotent.index.startup.replay.timeout:PT2M}") Duration startupReplayTimeout,
+                                                        @Value("${nisaba.idempotent.index.checkpoint.interval:PT10S}") Duration checkpointInterval) {
+
+        KafkaConfiguration config = new KafkaConfiguration();
+
+        Properties commonProperties = kafkaIdempotentRepositoryProperties(brokers, jaasConfig);
+
+        Properties producerProperties = config.createProducerProperties();
+        producerProperties.putAll(commonProperties);
+
+        Properties consumerProperties = config.createConsumerProperties();
+        consumerProperties.putAll(commonProperties);
+
+        return new MappedFileIdempotentRepository(idempotentTopic, Path.of(indexFolder), initialCapacity, startupReplayTimeout,
+                checkpointInterval, consumerProperties, producerProperties);
+    }
+
+    private static Properties kafkaIdempotentRepositoryProperties(String brokers, String jaasConfig) {
         Properties commonProperties = new Properties();
         commonProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokers);
         commonProperties.put(ProducerConfig.CLIENT_ID_CONFIG, "nisaba-idempotent-repo");
@@ -65,14 +127,7 @@ public class CamelConfig {
             commonProperties.put(SaslConfigs.SASL_MECHANISM, "SCRAM-SHA-512");
             commonProperties.put(SaslConfigs.SASL_JAAS_CONFIG, jaasConfig);
         }
-
-        Properties producerProperties = config.createProducerProperties();
-        producerProperties.putAll(commonProperties);
-
-        Properties consumerProperties = config.createConsumerProperties();
-        consumerProperties.putAll(commonProperties);
-
-        return new KafkaIdempotentRepository(idempotentTopic, consumerProperties, commonProperties);
+        return commonProperties;
     }
 
 
@@ -100,15 +155,143 @@ public class CamelConfig {
 
     /**
      * Store the offset repository for the import event topic.
-     * The store is not persistent, pods read the topic from the beginning at startup time.
+     * The store is not persistent, pods read the topic from the beginning at startup time, unless the offsets are
+     * restored from an import date snapshot.
      *
      * @return a memory-only store for the topic offset.
      */
     @Bean
-    public MemoryStateRepository nisabaEventReaderOffsetRepo() {
-        return new MemoryStateRepository();
+    public ImportEventOffsetRepository nisabaEventReaderOffsetRepo() {
+        return new ImportEventOffsetRepository();
+    }
+
+
+    /**
+     * Store the fingerprint of the last processed NeTEx export file per codespace.
+     * The store is persisted in a local file under nisaba.state.folder, which defaults to a subfolder of the JVM
+     * temporary folder. The folder is local to the pod: after a reschedule the first export of each codespace is
+     * processed again, which is safe since the publication of import events is idempotent.
+     *
+     * @param stateFolder the folder where the state files are stored.
+     * @return a store for the fingerprint of the last processed NeTEx export file, indexed by codespace.
+     */
+    @Bean(value = "netexExportFingerprintRepo", initMethod = "start", destroyMethod = "stop")
+    public StateRepository<String, String> netexExportFingerprintRepo(@Value("${nisaba.state.folder:${java.io.tmpdir}/nisaba-state}") String stateFolder) {
+        return fileStateRepository(stateFolder, "netex-export-fingerprints.dat");
+    }
+
+    /**
+     * Store the creation times retrieved from the last processed NeTEx export file per codespace, together with the
+     * fingerprint of the file.
+     * The store is persisted in a local file under nisaba.state.folder. A lost entry only costs a new download of the
+     * export file.
+     *
+     * @param stateFolder the folder where the state files are stored.
+     * @return a store for the creation times of the last processed NeTEx export file, indexed by codespace.
+     */
+    @Bean(value = "netexCreationTimeCacheRepo", initMethod = "start", destroyMethod = "stop")
+    public StateRepository<String, String> netexCreationTimeCacheRepo(@Value("${nisaba.state.folder:${java.io.tmpdir}/nisaba-state}") String stateFolder) {
+        return fileStateRepository(stateFolder, "netex-creation-times.dat");
+    }
+
+    /**
+     * Store the creation time of the XML entries of the last scanned NeTEx export file per codespace, indexed by the
+     * CRC-32 and size of the entries.
+     * The store is persisted in a local file under nisaba.state.folder. A lost entry only costs a full scan of the next
+     * export file.
+     *
+     * @param stateFolder the folder where the state files are stored.
+     * @return a store for the creation times of the entries of the last scanned NeTEx export file, indexed by codespace.
+     */
+    @Bean(value = "netexArchiveEntryCacheRepo", initMethod = "start", destroyMethod = "stop")
+    public StateRepository<String, String> netexArchiveEntryCacheRepo(@Value("${nisaba.state.folder:${java.io.tmpdir}/nisaba-state}") String stateFolder) {
+        return fileStateRepository(stateFolder, "netex-archive-entries.dat");
+    }
+
+    /**
+     * Scan NeTEx export files and retrieve the creation times of their CompositeFrames.
+     * In parallel mode, the entries are inflated and parsed concurrently on a bounded thread pool managed by Camel.
+     * When the queue is full, the scanning thread parses the entry itself.
+     *
+     * @param parallelCreationTimeRetrieval true if the entries are parsed in parallel.
+     * @param creationTimeRetrievalPoolSize the number of threads in parallel mode.
+     * @param creationTimeRetrievalQueueSize the maximum number of entries waiting for a thread in parallel mode.
+     * @param creationTimeMaxPrefixSize the maximum number of inflated bytes read from an entry before falling back to a full read.
+     * @return a NeTEx archive scanner.
+     */
+    @Bean
+    public NetexArchiveScanner netexArchiveScanner(CamelContext camelContext,
+                                                   @Value("${nisaba.netex.creation.time.parallel.enabled:false}") boolean parallelCreationTimeRetrieval,
+                                                   @Value("${nisaba.netex.creation.time.parallel.pool.size:4}") int creationTimeRetrievalPoolSize,
+                                                   @Value("${nisaba.netex.creation.time.parallel.queue.size:100}") int creationTimeRetrievalQueueSize,
+                                                   @Value("${nisaba.netex.creation.time.prefix.max.size:65536}") long creationTimeMaxPrefixSize,
+                                                   NetexArchiveEntryCache netexArchiveEntryCache) {
+        ExecutorService executorService = null;
+        if (parallelCreationTimeRetrieval) {
+            executorService = camelContext.getExecutorServiceManager().newThreadPool(this, "RetrieveDatasetCreationTime",
+                    new ThreadPoolProfileBuilder("RetrieveDatasetCreationTime")
+                            .poolSize(creationTimeRetrievalPoolSize)
+                            .maxPoolSize(creationTimeRetrievalPoolSize)
+                            .maxQueueSize(creationTimeRetrievalQueueSize)
+                            .rejectedPolicy(ThreadPoolRejectedPolicy.CallerRuns)
+                            .build());
+        }
+        return new NetexArchiveScanner(executorService, creationTimeMaxPrefixSize, netexArchiveEntryCache);
+    }
+
+    /**
+     * Run the Camel thread pools on virtual threads when virtual threads are enabled in Spring Boot.
+     * Spring Boot then runs the request handling of the embedded web server on virtual threads, and Camel picks up this
+     * factory for its thread pools: Kafka consumers, splitter, redelivery and parallel creation time retrieval.
+     *
+     * @return a Camel thread pool factory that creates virtual threads.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+    public ThreadPoolFactory virtualThreadPoolFactory() {
+        return new VirtualThreadPoolFactory();
     }
 
+    /**
+     * Store the creation time of the most recent dataset published per codespace, in epoch milliseconds.
+     * Used for detecting duplicates when the deduplication mode is "watermark".
+     * The store is backed by a log-compacted Kafka topic shared by all instances, so that the watermarks survive restarts
+     * and follow the master lock to another pod.
+     *
+     * @param watermarkTopic       the log-compacted topic that stores the watermarks.
+     * @param brokers              the Kafka brokers.
+     * @param startupReplayTimeout the maximum time spent reading the topic at startup time.
+     * @return a store for the watermark of published datasets, indexed by codespace.
+     */
+    @Bean(value = "netexImportWatermarkRepo", initMethod = "start", destroyMethod = "stop")
+    @Profile("!test")
+    @ConditionalOnProperty(name = "nisaba.dedup.mode", havingValue = "watermark")
+    public KafkaWatermarkStateRepository netexImportWatermarkRepo(@Value("${nisaba.kafka.topic.watermark}") String watermarkTopic,
+                                                                  @Value("${camel.component.kafka.brokers}") String brokers,
+                                                                  @Value("${camel.component.kafka.sasl-jaas-config:}") String jaasConfig,
+                                                                  @Value("${nisaba.kafka.topic.watermark.startup.replay.timeout:PT2M}") Duration startupReplayTimeout) {
+
+        KafkaConfiguration config = new KafkaConfiguration();
+
+        Properties commonProperties = kafkaIdempotentRepositoryProperties(brokers, jaasConfig);
+        commonProperties.put(ProducerConfig.CLIENT_ID_CONFIG, "nisaba-watermark-repo");
+
+        Properties producerProperties = config.createProducerProperties();
+        producerProperties.putAll(commonProperties);
+
+        Properties consumerProperties = config.createConsumerProperties();
+        consumerProperties.putAll(commonProperties);
+
+        return new KafkaWatermarkStateRepository(watermarkTopic, startupReplayTimeout, consumerProperties, producerProperties);
+    }
+
+    private static StateRepository<String, String> fileStateRepository(String stateFolder, String fileName) {
+        File folder = new File(stateFolder);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IllegalStateException("Cannot create the state folder " + folder.getAbsolutePath());
+        }
+        return FileStateRepository.fileStateRepository(new File(folder, fileName));
+    }
 
     /**
      * Register Java Time Module for JSON serialization/deserialization of Java Time objects.
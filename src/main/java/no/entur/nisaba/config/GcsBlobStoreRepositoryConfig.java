@@ -16,8 +16,8 @@
 
 package no.entur.nisaba.config;
 
-import org.rutebanken.helper.storage.repository.BlobStoreRepository;
-import org.rutebanken.helper.gcp.repository.GcsBlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaBlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaGcsBlobStoreRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -30,9 +30,9 @@ public class GcsBlobStoreRepositoryConfig {
 
     @Bean
     @Scope("prototype")
-    BlobStoreRepository blobStoreRepository(
+    NisabaBlobStoreRepository blobStoreRepository(
             @Value("${blobstore.gcs.project.id}") String projectId,
             @Value("${blobstore.gcs.credential.path:#{null}}") String credentialPath) {
-        return new GcsBlobStoreRepository(projectId, credentialPath);
+        return new NisabaGcsBlobStoreRepository(projectId, credentialPath);
     }
 }
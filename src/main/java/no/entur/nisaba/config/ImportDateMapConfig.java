@@ -16,21 +16,26 @@
 
 package no.entur.nisaba.config;
 
+import no.entur.nisaba.importdate.ImportDateStore;
+import no.entur.nisaba.importdate.ImportHistoryStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
- * Configuration for the shared import dates map.
- * This map is populated by the Kafka consumer route and read by the REST controller.
+ * Configuration for the shared import date store and import history store.
+ * These stores are populated by the Kafka consumer route and read by the REST controller.
  */
 @Configuration
 public class ImportDateMapConfig {
 
-    @Bean("importDatesMap")
-    public Map<String, String> importDatesMap() {
-        return new ConcurrentHashMap<>(50);
+    @Bean
+    public ImportDateStore importDateStore() {
+        return new ImportDateStore();
+    }
+
+    @Bean
+    public ImportHistoryStore importHistoryStore(@Value("${nisaba.import.date.history.size:10}") int historySize) {
+        return new ImportHistoryStore(historySize);
     }
 }
\ No newline at end of file
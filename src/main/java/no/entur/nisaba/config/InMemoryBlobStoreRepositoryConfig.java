@@ -16,8 +16,8 @@
 
 package no.entur.nisaba.config;
 
-import org.rutebanken.helper.storage.repository.BlobStoreRepository;
-import org.rutebanken.helper.storage.repository.InMemoryBlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaBlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaInMemoryBlobStoreRepository;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
@@ -37,9 +37,9 @@ public class InMemoryBlobStoreRepositoryConfig {
 
   @Bean
   @Scope("prototype")
-  BlobStoreRepository blobStoreRepository(
+  NisabaBlobStoreRepository blobStoreRepository(
     Map<String, Map<String, byte[]>> blobsInContainers
   ) {
-    return new InMemoryBlobStoreRepository(blobsInContainers);
+    return new NisabaInMemoryBlobStoreRepository(blobsInContainers);
   }
 }
@@ -16,8 +16,8 @@
 
 package no.entur.nisaba.config;
 
-import org.rutebanken.helper.storage.repository.BlobStoreRepository;
-import org.rutebanken.helper.storage.repository.LocalDiskBlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaBlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaLocalDiskBlobStoreRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -30,9 +30,9 @@ public class LocalDiskBlobStoreRepositoryConfig {
 
   @Bean
   @Scope("prototype")
-  BlobStoreRepository blobStoreRepository(
+  NisabaBlobStoreRepository blobStoreRepository(
     @Value("${blobstore.local.folder:files/blob}") String baseFolder
   ) {
-    return new LocalDiskBlobStoreRepository(baseFolder);
+    return new NisabaLocalDiskBlobStoreRepository(baseFolder);
   }
 }
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+
+package no.entur.nisaba.config;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.CamelContextAware;
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.apache.camel.spi.ThreadPoolFactory;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.support.DefaultThreadPoolFactory;
+import org.apache.camel.util.concurrent.CamelThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Camel thread pool factory that runs the tasks of the Camel thread pools on virtual threads.
+ * The pools keep the size, queue and rejection policy of their thread pool profile, so that the back-pressure of the
+ * routes is unchanged. Only the threads are virtual. They are named after the thread name pattern of the Camel
+ * context, so that they are identified in logs and thread dumps as the platform threads were.
+ * Unlike the camel.threads.virtual.enabled system property, this factory applies only to the Camel context of the
+ * Spring application context that declares it.
+ */
+public class VirtualThreadPoolFactory implements ThreadPoolFactory, CamelContextAware {
+
+    private static final String DEFAULT_THREAD_NAME_PREFIX = "Camel virtual thread #";
+
+    private final DefaultThreadPoolFactory delegate = new DefaultThreadPoolFactory();
+
+    private CamelContext camelContext;
+
+    @Override
+    public ExecutorService newCachedThreadPool(ThreadFactory threadFactory) {
+        return Executors.newThreadPerTaskExecutor(virtualThreadFactory(threadFactory));
+    }
+
+    @Override
+    public ExecutorService newThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
+        return delegate.newThreadPool(profile, virtualThreadFactory(threadFactory));
+    }
+
+    @Override
+    public ScheduledExecutorService newScheduledThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
+        return delegate.newScheduledThreadPool(profile, virtualThreadFactory(threadFactory));
+    }
+
+    @Override
+    public CamelContext getCamelContext() {
+        return camelContext;
+    }
+
+    @Override
+    public void setCamelContext(CamelContext camelContext) {
+        this.camelContext = camelContext;
+        CamelContextAware.trySetCamelContext(delegate, camelContext);
+    }
+
+    /**
+     * Create virtual threads with the name that the Camel thread factory gives to its threads, resolved from the thread
+     * name pattern of the Camel context. Threads of other factories are numbered.
+     */
+    private ThreadFactory virtualThreadFactory(ThreadFactory threadFactory) {
+        if (camelContext != null && threadFactory instanceof CamelThreadFactory camelThreadFactory) {
+            ExecutorServiceManager executorServiceManager = camelContext.getExecutorServiceManager();
+            String name = camelThreadFactory.getName();
+            return runnable -> Thread.ofVirtual().name(executorServiceManager.resolveThreadName(name)).unstarted(runnable);
+        }
+        return Thread.ofVirtual().name(DEFAULT_THREAD_NAME_PREFIX, 1).factory();
+    }
+}
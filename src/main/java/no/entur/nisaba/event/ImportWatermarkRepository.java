@@ -0,0 +1,74 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.event;
+
+import no.entur.nisaba.Constants;
+import org.apache.camel.Header;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Keep track of the creation time of the most recent dataset published for each codespace.
+ * A dataset created at or before the watermark of its codespace has already been published, or is older than a
+ * published dataset.
+ * The watermarks are stored as epoch milliseconds in a {@link KafkaWatermarkStateRepository}, shared by all instances.
+ * A local or in-memory repository cannot be used: the watermarks would be lost on a restart or would not follow the
+ * master lock to another pod, and the datasets published since the last import would be published again.
+ */
+@Component
+@ConditionalOnProperty(name = "nisaba.dedup.mode", havingValue = "watermark")
+public class ImportWatermarkRepository {
+
+    private final KafkaWatermarkStateRepository watermarkRepo;
+
+    public ImportWatermarkRepository(@Qualifier("netexImportWatermarkRepo") KafkaWatermarkStateRepository watermarkRepo) {
+        this.watermarkRepo = watermarkRepo;
+    }
+
+    /**
+     * Return true if the dataset was created at or before the creation time of the last dataset published for this codespace.
+     */
+    public boolean isAtOrBelowWatermark(@Header(value = Constants.DATASET_CODESPACE) String codespace,
+                                        @Header(value = Constants.DATASET_LATEST_CREATION_TIME) LocalDateTime creationTime) {
+        return toEpochMilli(creationTime) <= getWatermark(codespace);
+    }
+
+    /**
+     * Move the watermark of the codespace forward to the creation time of the published dataset.
+     * The watermark is never moved backward.
+     */
+    public void advance(@Header(value = Constants.DATASET_CODESPACE) String codespace,
+                        @Header(value = Constants.DATASET_LATEST_CREATION_TIME) LocalDateTime creationTime) {
+        long creationTimeMillis = toEpochMilli(creationTime);
+        if (creationTimeMillis > getWatermark(codespace)) {
+            watermarkRepo.setState(codespace, String.valueOf(creationTimeMillis));
+        }
+    }
+
+    private long getWatermark(String codespace) {
+        String watermark = watermarkRepo.getState(codespace);
+        return watermark == null ? Long.MIN_VALUE : Long.parseLong(watermark);
+    }
+
+    private static long toEpochMilli(LocalDateTime creationTime) {
+        return creationTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
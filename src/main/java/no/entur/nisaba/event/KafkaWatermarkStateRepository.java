@@ -0,0 +1,215 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.event;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.spi.StateRepository;
+import org.apache.camel.support.service.ServiceSupport;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State repository for the deduplication watermarks, backed by a log-compacted Kafka topic.
+ * The record key is the codespace and the record value is the watermark in epoch milliseconds.
+ * The topic is shared by all instances: the whole topic is read at startup time, and the repository does not start
+ * until it has caught up with the end of the topic. The changes made by the master instance are then read
+ * continuously in the background, so that an instance that takes over the master lock starts from up-to-date watermarks.
+ * Watermarks only move forward: a value never replaces a greater value for the same key, whatever the order in which
+ * local changes and records read from the topic are applied.
+ */
+public class KafkaWatermarkStateRepository extends ServiceSupport implements StateRepository<String, String> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaWatermarkStateRepository.class);
+
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final String topic;
+    private final Duration startupReplayTimeout;
+    private final Properties consumerConfig;
+    private final Properties producerConfig;
+    private final Map<String, Long> watermarks = new ConcurrentHashMap<>();
+
+    private Consumer<String, String> consumer;
+    private Producer<String, String> producer;
+    private ExecutorService topicPoller;
+    private volatile boolean polling;
+
+    /**
+     * @param topic                the log-compacted Kafka topic that stores the watermarks.
+     * @param startupReplayTimeout the maximum time spent reading the topic at startup time. The startup fails if the
+     *                             end of the topic is not reached within this time.
+     * @param consumerConfig       the Kafka consumer configuration.
+     * @param producerConfig       the Kafka producer configuration.
+     */
+    public KafkaWatermarkStateRepository(String topic, Duration startupReplayTimeout, Properties consumerConfig, Properties producerConfig) {
+        this.topic = topic;
+        this.startupReplayTimeout = startupReplayTimeout;
+
+        this.consumerConfig = new Properties();
+        this.consumerConfig.putAll(consumerConfig);
+        this.consumerConfig.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        this.consumerConfig.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        this.consumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        this.consumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        this.consumerConfig.remove(ConsumerConfig.GROUP_ID_CONFIG);
+
+        this.producerConfig = new Properties();
+        this.producerConfig.putAll(producerConfig);
+        this.producerConfig.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        this.producerConfig.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        this.producerConfig.put(ProducerConfig.ACKS_CONFIG, "all");
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        try {
+            producer = createProducer();
+            consumer = createConsumer();
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(partitionInfo -> new TopicPartition(topic, partitionInfo.partition()))
+                    .toList();
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            replayUntilEndOffsets(partitions);
+        } catch (Exception e) {
+            doStop();
+            throw e;
+        }
+        polling = true;
+        topicPoller = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "nisaba-watermark-repository-poller"));
+        topicPoller.submit(this::pollTopic);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        polling = false;
+        if (topicPoller != null) {
+            consumer.wakeup();
+            topicPoller.shutdown();
+            if (!topicPoller.awaitTermination(POLL_TIMEOUT.toMillis() * 5, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("The watermark repository topic poller did not stop in time");
+            }
+            topicPoller = null;
+        }
+        if (consumer != null) {
+            consumer.close();
+            consumer = null;
+        }
+        if (producer != null) {
+            producer.close();
+            producer = null;
+        }
+    }
+
+    /**
+     * Publish the watermark to the topic, then apply it locally.
+     * The method returns only when the record has been acknowledged by the brokers.
+     */
+    @Override
+    public void setState(String key, String value) {
+        long watermark = Long.parseLong(value);
+        try {
+            producer.send(new ProducerRecord<>(topic, key, value)).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeCamelException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeCamelException(e);
+        }
+        watermarks.merge(key, watermark, Math::max);
+    }
+
+    @Override
+    public String getState(String key) {
+        Long watermark = watermarks.get(key);
+        return watermark == null ? null : String.valueOf(watermark);
+    }
+
+    protected Consumer<String, String> createConsumer() {
+        return new KafkaConsumer<>(consumerConfig);
+    }
+
+    protected Producer<String, String> createProducer() {
+        return new KafkaProducer<>(producerConfig);
+    }
+
+    private void replayUntilEndOffsets(List<TopicPartition> partitions) {
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        long deadline = System.currentTimeMillis() + startupReplayTimeout.toMillis();
+        while (!isCaughtUp(endOffsets)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Timeout after " + startupReplayTimeout + " while reading the watermarks from topic "
+                        + topic + ", end offsets " + endOffsets);
+            }
+            applyRecords(consumer.poll(POLL_TIMEOUT));
+        }
+        LOGGER.info("Read the watermarks of {} codespaces from topic {}", watermarks.size(), topic);
+    }
+
+    private boolean isCaughtUp(Map<TopicPartition, Long> endOffsets) {
+        return endOffsets.entrySet().stream().allMatch(endOffset -> consumer.position(endOffset.getKey()) >= endOffset.getValue());
+    }
+
+    private void pollTopic() {
+        try {
+            while (polling) {
+                applyRecords(consumer.poll(POLL_TIMEOUT));
+            }
+        } catch (WakeupException e) {
+            LOGGER.debug("Stopping the watermark repository topic poller");
+        } catch (Exception e) {
+            LOGGER.error("The watermark repository topic poller failed, the watermarks published by other instances will not be read", e);
+        }
+    }
+
+    private void applyRecords(ConsumerRecords<String, String> records) {
+        for (ConsumerRecord<String, String> consumerRecord : records) {
+            if (consumerRecord.key() == null || consumerRecord.value() == null) {
+                continue;
+            }
+            try {
+                watermarks.merge(consumerRecord.key(), Long.parseLong(consumerRecord.value()), Math::max);
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring invalid watermark '{}' for codespace {} at offset {} in partition {}",
+                        consumerRecord.value(), consumerRecord.key(), consumerRecord.offset(), consumerRecord.partition());
+            }
+        }
+    }
+}
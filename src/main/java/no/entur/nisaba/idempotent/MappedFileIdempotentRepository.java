@@ -0,0 +1,352 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.idempotent;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.service.ServiceSupport;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idempotent repository that stores the keys in a memory-mapped hash index on the local disk, outside the Java heap.
+ * The Kafka topic used by {@link org.apache.camel.processor.idempotent.kafka.KafkaIdempotentRepository} remains the
+ * shared source of truth: changes to the repository are mirrored to the topic, using the same record format, and the
+ * changes made by other instances are read back from the topic.
+ * The offsets of the records applied to the index are saved in a checkpoint file, so that only the records published
+ * since the last checkpoint are replayed at startup time. The whole topic is replayed only when the index is created.
+ * The repository does not start until the replay has caught up with the end of the topic, so that a duplicate is
+ * never mistaken for a new key.
+ */
+public class MappedFileIdempotentRepository extends ServiceSupport implements IdempotentRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileIdempotentRepository.class);
+
+    private static final String INDEX_FILE_NAME = "idempotent-repository.idx";
+    private static final String CHECKPOINT_FILE_NAME = "idempotent-repository.checkpoint";
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private enum CacheAction {
+        add,
+        remove,
+        clear
+    }
+
+    private final String topic;
+    private final Path indexFolder;
+    private final int initialCapacity;
+    private final Duration startupReplayTimeout;
+    private final Duration checkpointInterval;
+    private final Properties consumerConfig;
+    private final Properties producerConfig;
+
+    private MappedHashIndex index;
+    private Consumer<String, String> consumer;
+    private Producer<String, String> producer;
+    private ExecutorService topicPoller;
+    private volatile boolean polling;
+
+    // accessed by the startup thread, then by the topic poller thread only
+    private final Map<TopicPartition, Long> appliedOffsets = new HashMap<>();
+    private long lastCheckpointTime;
+
+    /**
+     * @param topic                the Kafka topic that stores the history of the repository.
+     * @param indexFolder          the local folder where the index and the checkpoint are stored.
+     * @param initialCapacity      the number of slots in a new index. The index grows as needed.
+     * @param startupReplayTimeout the maximum time spent replaying the topic at startup time. The startup fails if the
+     *                             replay has not caught up with the end of the topic within this time.
+     * @param checkpointInterval   the minimum time between two checkpoints.
+     * @param consumerConfig       the Kafka consumer configuration.
+     * @param producerConfig       the Kafka producer configuration.
+     */
+    public MappedFileIdempotentRepository(String topic, Path indexFolder, int initialCapacity, Duration startupReplayTimeout,
+                                          Duration checkpointInterval, Properties consumerConfig, Properties producerConfig) {
+        this.topic = topic;
+        this.indexFolder = indexFolder;
+        this.initialCapacity = initialCapacity;
+        this.startupReplayTimeout = startupReplayTimeout;
+        this.checkpointInterval = checkpointInterval;
+
+        this.consumerConfig = new Properties();
+        this.consumerConfig.putAll(consumerConfig);
+        this.consumerConfig.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        this.consumerConfig.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        this.consumerConfig.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        this.consumerConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        this.consumerConfig.remove(ConsumerConfig.GROUP_ID_CONFIG);
+
+        this.producerConfig = new Properties();
+        this.producerConfig.putAll(producerConfig);
+        this.producerConfig.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        this.producerConfig.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        try {
+            openAndReplay();
+        } catch (Exception e) {
+            doStop();
+            throw e;
+        }
+        polling = true;
+        topicPoller = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "nisaba-idempotent-repository-poller"));
+        topicPoller.submit(this::pollTopic);
+    }
+
+    private void openAndReplay() throws IOException {
+        Files.createDirectories(indexFolder);
+        index = MappedHashIndex.open(indexFolder.resolve(INDEX_FILE_NAME), initialCapacity);
+        Map<Integer, Long> checkpoint = index.isCreated() ? Map.of() : readCheckpoint();
+        LOGGER.info("Opened idempotent repository index with {} keys, replaying topic {} from {}",
+                index.size(), topic, checkpoint.isEmpty() ? "the beginning" : "offsets " + checkpoint);
+
+        producer = createProducer();
+        consumer = createConsumer();
+        List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                .map(partitionInfo -> new TopicPartition(topic, partitionInfo.partition()))
+                .toList();
+        consumer.assign(partitions);
+        for (TopicPartition partition : partitions) {
+            Long offset = checkpoint.get(partition.partition());
+            if (offset == null) {
+                consumer.seekToBeginning(List.of(partition));
+            } else {
+                consumer.seek(partition, offset);
+            }
+        }
+
+        replayUntilEndOffsets(partitions);
+        writeCheckpoint();
+    }
+
+    Consumer<String, String> createConsumer() {
+        return new KafkaConsumer<>(consumerConfig);
+    }
+
+    Producer<String, String> createProducer() {
+        return new KafkaProducer<>(producerConfig);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        polling = false;
+        if (topicPoller != null) {
+            // the poller reads the consumer and writes the index: both must be closed only once it has terminated,
+            // since unmapping the index while the poller accesses it would crash the JVM
+            consumer.wakeup();
+            topicPoller.shutdown();
+            while (!topicPoller.awaitTermination(POLL_TIMEOUT.toMillis() * 5, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("The idempotent repository topic poller did not stop in time, interrupting it");
+                topicPoller.shutdownNow();
+                consumer.wakeup();
+            }
+            topicPoller = null;
+        }
+        if (consumer != null) {
+            consumer.close();
+            consumer = null;
+        }
+        if (producer != null) {
+            producer.close();
+            producer = null;
+        }
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+
+    @Override
+    public boolean add(String key) {
+        try {
+            if (!index.add(key)) {
+                return false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            broadcastAction(key, CacheAction.add);
+        } catch (RuntimeException e) {
+            // the send may also fail before the record is handed over to the producer
+            index.remove(key);
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return index.contains(key);
+    }
+
+    @Override
+    public boolean remove(String key) {
+        broadcastAction(key, CacheAction.remove);
+        return index.remove(key);
+    }
+
+    @Override
+    public boolean confirm(String key) {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        broadcastAction(null, CacheAction.clear);
+        index.clear();
+    }
+
+    private void broadcastAction(String key, CacheAction action) {
+        try {
+            producer.send(new ProducerRecord<>(topic, key, action.toString())).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeCamelException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    private void replayUntilEndOffsets(List<TopicPartition> partitions) throws IOException {
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        long deadline = System.currentTimeMillis() + startupReplayTimeout.toMillis();
+        int replayedRecords = 0;
+        while (!isCaughtUp(endOffsets)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Timeout after " + startupReplayTimeout + " while replaying topic " + topic
+                        + ": " + replayedRecords + " records replayed, end offsets " + endOffsets);
+            }
+            replayedRecords += applyRecords(consumer.poll(POLL_TIMEOUT));
+        }
+        LOGGER.info("Replayed {} records from topic {}, the index contains {} keys", replayedRecords, topic, index.size());
+    }
+
+    private boolean isCaughtUp(Map<TopicPartition, Long> endOffsets) {
+        return endOffsets.entrySet().stream().allMatch(endOffset -> consumer.position(endOffset.getKey()) >= endOffset.getValue());
+    }
+
+    private void pollTopic() {
+        try {
+            while (polling) {
+                if (applyRecords(consumer.poll(POLL_TIMEOUT)) > 0
+                        && System.currentTimeMillis() - lastCheckpointTime >= checkpointInterval.toMillis()) {
+                    writeCheckpoint();
+                }
+            }
+        } catch (WakeupException e) {
+            LOGGER.debug("Stopping the idempotent repository topic poller");
+        } catch (Exception e) {
+            LOGGER.error("The idempotent repository topic poller failed, the changes made by other instances will not be read", e);
+            return;
+        }
+        try {
+            writeCheckpoint();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write the idempotent repository checkpoint", e);
+        }
+    }
+
+    private int applyRecords(ConsumerRecords<String, String> records) throws IOException {
+        for (ConsumerRecord<String, String> consumerRecord : records) {
+            applyRecord(consumerRecord);
+            appliedOffsets.put(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()), consumerRecord.offset() + 1);
+        }
+        return records.count();
+    }
+
+    private void applyRecord(ConsumerRecord<String, String> consumerRecord) throws IOException {
+        CacheAction action;
+        try {
+            action = CacheAction.valueOf(consumerRecord.value());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            LOGGER.warn("Ignoring unknown action '{}' at offset {} in partition {}", consumerRecord.value(), consumerRecord.offset(), consumerRecord.partition());
+            return;
+        }
+        switch (action) {
+            case add -> index.add(consumerRecord.key());
+            case remove -> index.remove(consumerRecord.key());
+            case clear -> index.clear();
+        }
+    }
+
+    private Map<Integer, Long> readCheckpoint() throws IOException {
+        Path checkpointFile = indexFolder.resolve(CHECKPOINT_FILE_NAME);
+        if (!Files.exists(checkpointFile)) {
+            return Map.of();
+        }
+        Properties checkpoint = new Properties();
+        try (Reader reader = Files.newBufferedReader(checkpointFile)) {
+            checkpoint.load(reader);
+        }
+        Map<Integer, Long> offsets = new HashMap<>();
+        checkpoint.stringPropertyNames().forEach(partition -> offsets.put(Integer.valueOf(partition), Long.valueOf(checkpoint.getProperty(partition))));
+        return offsets;
+    }
+
+    /**
+     * Save the offsets of the records applied to the index.
+     * The index is written to the storage device before the checkpoint, so that the checkpoint never gets ahead of the index.
+     */
+    private void writeCheckpoint() throws IOException {
+        index.force();
+        Properties checkpoint = new Properties();
+        for (TopicPartition partition : consumer.assignment()) {
+            long offset = appliedOffsets.getOrDefault(partition, consumer.position(partition));
+            checkpoint.setProperty(String.valueOf(partition.partition()), String.valueOf(offset));
+        }
+        Path checkpointFile = indexFolder.resolve(CHECKPOINT_FILE_NAME);
+        Path newCheckpointFile = indexFolder.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(newCheckpointFile)) {
+            checkpoint.store(writer, "Offsets of the records applied to the idempotent repository index");
+        }
+        Files.move(newCheckpointFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.idempotent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A set of strings stored in an open-addressing hash table, in a memory-mapped file.
+ * The table lives outside the Java heap and is persisted across restarts by the operating system.
+ * Each slot has a fixed size and holds the state of the slot, the length of the key and the UTF-8 encoded key.
+ * Collisions are resolved by linear probing. Removed keys leave a tombstone. The table is rebuilt into a larger file
+ * when the load factor, tombstones included, exceeds {@link #MAX_LOAD_FACTOR}.
+ * This class is thread-safe.
+ */
+final class MappedHashIndex implements Closeable {
+
+    static final int SLOT_SIZE = 128;
+    static final int MAX_KEY_LENGTH = SLOT_SIZE - 2;
+
+    private static final int MAGIC = 0x4e495831;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int SIZE_OFFSET = 8;
+    private static final int TOMBSTONES_OFFSET = 12;
+
+    private static final byte EMPTY = 0;
+    private static final byte OCCUPIED = 1;
+    private static final byte TOMBSTONE = 2;
+
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    private final Path file;
+    private final boolean created;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    private int tombstones;
+
+    private MappedHashIndex(Path file, boolean created) {
+        this.file = file;
+        this.created = created;
+    }
+
+    /**
+     * Open the index stored in the given file, or create an empty index if the file does not exist or is not a valid index.
+     *
+     * @param file            the index file.
+     * @param initialCapacity the number of slots in a new index. Rounded up to the next power of two.
+     */
+    static MappedHashIndex open(Path file, int initialCapacity) throws IOException {
+        if (Files.exists(file)) {
+            MappedHashIndex index = new MappedHashIndex(file, false);
+            if (index.load()) {
+                return index;
+            }
+        }
+        MappedHashIndex index = new MappedHashIndex(file, true);
+        index.buffer = createTable(file, tableCapacity(initialCapacity));
+        index.readHeader();
+        return index;
+    }
+
+    /**
+     * Return true if the index was created empty when it was opened, because the file was missing or invalid.
+     */
+    boolean isCreated() {
+        return created;
+    }
+
+    synchronized boolean contains(String key) {
+        return findSlot(encode(key)) >= 0;
+    }
+
+    /**
+     * Add the key to the index.
+     *
+     * @return true if the key was added, false if it was already present.
+     */
+    synchronized boolean add(String key) throws IOException {
+        byte[] encodedKey = encode(key);
+        if (findSlot(encodedKey) >= 0) {
+            return false;
+        }
+        if (size + tombstones + 1 > capacity * MAX_LOAD_FACTOR) {
+            rebuild();
+        }
+        int slot = findInsertionSlot(encodedKey);
+        if (slotState(slot) == TOMBSTONE) {
+            tombstones--;
+        }
+        writeSlot(buffer, slot, encodedKey);
+        size++;
+        writeCounters();
+        return true;
+    }
+
+    /**
+     * Remove the key from the index.
+     *
+     * @return true if the key was removed, false if it was not present.
+     */
+    synchronized boolean remove(String key) {
+        int slot = findSlot(encode(key));
+        if (slot < 0) {
+            return false;
+        }
+        buffer.put(slotOffset(slot), TOMBSTONE);
+        size--;
+        tombstones++;
+        writeCounters();
+        return true;
+    }
+
+    synchronized void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            buffer.put(slotOffset(slot), EMPTY);
+        }
+        size = 0;
+        tombstones = 0;
+        writeCounters();
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Write the changes to the storage device.
+     */
+    synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            // the mapping is released when the buffer is garbage collected
+            buffer = null;
+        }
+    }
+
+    private boolean load() throws IOException {
+        if (Files.size(file) < HEADER_SIZE) {
+            return false;
+        }
+        buffer = map(file, Files.size(file));
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            return false;
+        }
+        int storedCapacity = buffer.getInt(CAPACITY_OFFSET);
+        if (Integer.bitCount(storedCapacity) != 1 || Files.size(file) != fileSize(storedCapacity)) {
+            return false;
+        }
+        readHeader();
+        return true;
+    }
+
+    private void readHeader() {
+        capacity = buffer.getInt(CAPACITY_OFFSET);
+        size = buffer.getInt(SIZE_OFFSET);
+        tombstones = buffer.getInt(TOMBSTONES_OFFSET);
+    }
+
+    private void writeCounters() {
+        buffer.putInt(SIZE_OFFSET, size);
+        buffer.putInt(TOMBSTONES_OFFSET, tombstones);
+    }
+
+    /**
+     * Copy the keys into a new table, dropping the tombstones and doubling the capacity if needed.
+     * The new table is written to a temporary file that atomically replaces the index file.
+     */
+    private void rebuild() throws IOException {
+        int newCapacity = capacity;
+        while (size + 1 > newCapacity * MAX_LOAD_FACTOR / 2) {
+            newCapacity <<= 1;
+        }
+        Path rebuiltFile = file.resolveSibling(file.getFileName() + ".rebuild");
+        MappedByteBuffer rebuiltBuffer = createTable(rebuiltFile, newCapacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            if (slotState(slot) == OCCUPIED) {
+                byte[] encodedKey = readKey(slot);
+                writeSlot(rebuiltBuffer, findEmptySlot(rebuiltBuffer, newCapacity, encodedKey), encodedKey);
+            }
+        }
+        rebuiltBuffer.putInt(SIZE_OFFSET, size);
+        rebuiltBuffer.force();
+        Files.move(rebuiltFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buffer = rebuiltBuffer;
+        readHeader();
+    }
+
+    private int findSlot(byte[] encodedKey) {
+        int mask = capacity - 1;
+        int slot = hash(encodedKey) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            byte state = slotState(slot);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == OCCUPIED && keyEquals(slot, encodedKey)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findInsertionSlot(byte[] encodedKey) {
+        int mask = capacity - 1;
+        int slot = hash(encodedKey) & mask;
+        while (slotState(slot) == OCCUPIED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int findEmptySlot(MappedByteBuffer table, int tableCapacity, byte[] encodedKey) {
+        int mask = tableCapacity - 1;
+        int slot = hash(encodedKey) & mask;
+        while (table.get(slotOffset(slot)) != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private byte slotState(int slot) {
+        return buffer.get(slotOffset(slot));
+    }
+
+    private boolean keyEquals(int slot, byte[] encodedKey) {
+        int offset = slotOffset(slot);
+        if (Byte.toUnsignedInt(buffer.get(offset + 1)) != encodedKey.length) {
+            return false;
+        }
+        for (int i = 0; i < encodedKey.length; i++) {
+            if (buffer.get(offset + 2 + i) != encodedKey[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] readKey(int slot) {
+        int offset = slotOffset(slot);
+        byte[] encodedKey = new byte[Byte.toUnsignedInt(buffer.get(offset + 1))];
+        buffer.get(offset + 2, encodedKey);
+        return encodedKey;
+    }
+
+    private static void writeSlot(MappedByteBuffer table, int slot, byte[] encodedKey) {
+        int offset = slotOffset(slot);
+        table.put(offset + 2, encodedKey);
+        table.put(offset + 1, (byte) encodedKey.length);
+        table.put(offset, OCCUPIED);
+    }
+
+    private static byte[] encode(String key) {
+        byte[] encodedKey = key.getBytes(StandardCharsets.UTF_8);
+        if (encodedKey.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("The key exceeds the maximum length of " + MAX_KEY_LENGTH + " bytes: " + key);
+        }
+        return encodedKey;
+    }
+
+    /**
+     * FNV-1a hash of the encoded key.
+     */
+    private static int hash(byte[] encodedKey) {
+        int hash = 0x811c9dc5;
+        for (byte b : encodedKey) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static long fileSize(int tableCapacity) {
+        return HEADER_SIZE + (long) tableCapacity * SLOT_SIZE;
+    }
+
+    private static int tableCapacity(int requestedCapacity) {
+        int tableCapacity = Integer.highestOneBit(Math.max(requestedCapacity, 16) - 1) << 1;
+        if (fileSize(tableCapacity) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The index capacity is too large: " + requestedCapacity);
+        }
+        return tableCapacity;
+    }
+
+    private static MappedByteBuffer createTable(Path tableFile, int tableCapacity) throws IOException {
+        if (fileSize(tableCapacity) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The index cannot grow beyond " + tableCapacity + " slots");
+        }
+        Files.deleteIfExists(tableFile);
+        MappedByteBuffer table = map(tableFile, fileSize(tableCapacity));
+        table.putInt(CAPACITY_OFFSET, tableCapacity);
+        table.putInt(SIZE_OFFSET, 0);
+        table.putInt(TOMBSTONES_OFFSET, 0);
+        table.putInt(MAGIC_OFFSET, MAGIC);
+        return table;
+    }
+
+    private static MappedByteBuffer map(Path mappedFile, long mappedSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(mappedFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+        }
+    }
+}
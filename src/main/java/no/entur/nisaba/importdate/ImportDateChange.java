@@ -0,0 +1,36 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+/**
+ * A change of the import date of a codespace in the import date store.
+ *
+ * @param version     the local version of the store after the change.
+ * @param codespace   the codespace.
+ * @param epochSecond the new import date, in epoch seconds.
+ * @param partition   the partition of the import event that caused the change.
+ * @param offset      the offset of the import event that caused the change.
+ */
+public record ImportDateChange(long version, String codespace, long epochSecond, int partition, long offset) {
+
+    /**
+     * Return the new import date as an ISO local date time.
+     */
+    public String importDate() {
+        return ImportDateStore.format(epochSecond);
+    }
+}
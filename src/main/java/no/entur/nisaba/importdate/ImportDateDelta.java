@@ -0,0 +1,28 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import java.util.List;
+
+/**
+ * The changes made to the import date store after a given position.
+ *
+ * @param position the position of the store after these changes.
+ * @param changes  the changes, in the order they were applied.
+ */
+public record ImportDateDelta(ImportEventPosition position, List<ImportDateChange> changes) {
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Save the import dates, the import history and the offsets of the import event topic to a local snapshot file, and
+ * restore them at startup time.
+ * After a restore, the import event topic is consumed from the stored offsets instead of from the beginning.
+ * The snapshot is disabled if no snapshot file is configured.
+ */
+@Component
+public class ImportDateSnapshotRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportDateSnapshotRepository.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ImportDateStore importDateStore;
+    private final ImportHistoryStore importHistoryStore;
+    private final ImportEventOffsetRepository eventReaderOffsetRepo;
+    private final Path snapshotFile;
+
+    public ImportDateSnapshotRepository(ImportDateStore importDateStore,
+                                        ImportHistoryStore importHistoryStore,
+                                        @Qualifier("nisabaEventReaderOffsetRepo") ImportEventOffsetRepository eventReaderOffsetRepo,
+                                        @Value("${nisaba.import.date.snapshot.file:}") String snapshotFile) {
+        this.importDateStore = importDateStore;
+        this.importHistoryStore = importHistoryStore;
+        this.eventReaderOffsetRepo = eventReaderOffsetRepo;
+        this.snapshotFile = StringUtils.hasText(snapshotFile) ? Path.of(snapshotFile) : null;
+    }
+
+    public boolean isEnabled() {
+        return snapshotFile != null;
+    }
+
+    /**
+     * Restore the import dates, the import history and the topic offsets from the snapshot file, if any.
+     * Snapshots written before the import history was added do not contain it. Snapshots written before the position of
+     * the import dates was added are restored at the position of the topic offsets.
+     * A missing or unreadable snapshot is ignored: the topic is then consumed from the beginning.
+     */
+    @PostConstruct
+    public void restoreSnapshot() {
+        if (!isEnabled() || !Files.exists(snapshotFile)) {
+            return;
+        }
+        try {
+            ImportDateSnapshot snapshot = OBJECT_MAPPER.readValue(snapshotFile.toFile(), ImportDateSnapshot.class);
+            ImportEventPosition position = snapshot.position() != null ? ImportEventPosition.parse(snapshot.position()) : position(snapshot.offsets());
+            if (position == null) {
+                throw new IllegalArgumentException("Invalid position '" + snapshot.position() + "'");
+            }
+            importDateStore.restore(snapshot.importDates(), position);
+            if (snapshot.importHistory() != null) {
+                importHistoryStore.putAll(snapshot.importHistory());
+            }
+            snapshot.offsets().forEach(eventReaderOffsetRepo::setState);
+            LOGGER.info("Restored {} import dates and the offsets {} from snapshot {}", snapshot.importDates().size(), snapshot.offsets(), snapshotFile);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.warn("Failed to restore the import dates from snapshot {}, reading the topic from the beginning", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Write the import dates, the import history and the topic offsets to the snapshot file.
+     * The offsets are read before the import dates, so that the snapshot never contains offsets of events that are not
+     * reflected in the import dates. Events applied after the offsets were read are replayed after a restore: the import
+     * date store ignores the events up to the position of its snapshot, the import history ignores the replayed imports
+     * it already contains. The import history is read last, as the imports are recorded in the history before the
+     * import date store.
+     */
+    public void writeSnapshot() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Map<String, String> offsets = eventReaderOffsetRepo.getOffsets();
+        if (offsets.isEmpty()) {
+            // nothing consumed yet
+            return;
+        }
+        VersionedImportDates importDates = importDateStore.getSnapshot();
+        ImportDateSnapshot snapshot = new ImportDateSnapshot(offsets, importDates.position().toString(), importDates.epochSeconds(), importHistoryStore.getHistories());
+        Path newSnapshotFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        if (snapshotFile.getParent() != null) {
+            Files.createDirectories(snapshotFile.getParent());
+        }
+        OBJECT_MAPPER.writeValue(newSnapshotFile.toFile(), snapshot);
+        Files.move(newSnapshotFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Saved {} import dates and the offsets {} to snapshot {}", snapshot.importDates().size(), offsets, snapshotFile);
+    }
+
+    @PreDestroy
+    public void writeSnapshotOnShutdown() {
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save the import dates to snapshot {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Return the position of the given offsets. The Camel Kafka consumer stores the offset of the last consumed event,
+     * indexed by "topic/partition".
+     */
+    private static ImportEventPosition position(Map<String, String> offsets) {
+        Map<Integer, Long> offsetsByPartition = new HashMap<>();
+        offsets.forEach((topicPartition, offset) -> offsetsByPartition.put(
+                Integer.parseInt(topicPartition.substring(topicPartition.lastIndexOf('/') + 1)), Long.parseLong(offset)));
+        return ImportEventPosition.of(offsetsByPartition);
+    }
+
+    /**
+     * @param offsets       the offsets of the last consumed events, as stored by the Camel Kafka consumer, indexed by topic partition.
+     * @param position      the position of the import dates in the import event topic, or null in older snapshots.
+     * @param importDates   the import dates in epoch seconds, indexed by codespace.
+     * @param importHistory the most recent imports, the most recent first, indexed by codespace.
+     */
+    record ImportDateSnapshot(Map<String, String> offsets, String position, Map<String, Long> importDates,
+                              Map<String, List<ImportHistoryEntry>> importHistory) {
+    }
+}
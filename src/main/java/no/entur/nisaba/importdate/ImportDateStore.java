@@ -0,0 +1,321 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SequencedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Store the date of the latest import per codespace.
+ * The codespaces are normalized to lower case and interned, the import dates are stored as epoch seconds and formatted
+ * only when they are read.
+ * Lookups are case-insensitive. Codespaces are lower case in practice: a lower-case lookup does not allocate.
+ * Every change to the store increments its version. The REST controller reads an immutable snapshot of the store, which
+ * is published after each change together with an index of the codespaces ordered by import date, so that requests
+ * never pay for building it.
+ * The store also tracks its position in the import event topic, that is the offset of the last applied event per
+ * partition. Every instance consumes the same topic, so clients identify what they have seen by a position, which any
+ * instance can resume from. Events at or before the position of their partition are ignored when they are replayed.
+ * The most recent changes are kept in memory so that change listeners can resume from a given position.
+ * This class is populated by the Kafka consumer route (ImportDateMapUpdater) and read by the REST controller.
+ */
+public class ImportDateStore {
+
+    /**
+     * Partition of the changes that are not caused by an import event. Their offset is a counter local to the instance.
+     */
+    public static final int LOCAL_PARTITION = -1;
+
+    private static final int MAX_RECENT_CHANGES = 1024;
+
+    private final Map<String, Long> importEpochSeconds = new ConcurrentHashMap<>(50);
+    private final AtomicLong version = new AtomicLong();
+    private volatile IndexedSnapshot snapshot;
+
+    // guarded by recentChanges
+    private final Deque<ImportDateChange> recentChanges = new ArrayDeque<>();
+    private final Map<Integer, Long> appliedOffsets = new HashMap<>();
+    private final Map<Integer, Long> resumableOffsets = new HashMap<>();
+    private long localOffset;
+    private final List<Consumer<ImportDateChange>> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register the import date of a codespace, outside of any import event. The import date is truncated to the second.
+     */
+    public void put(String codespace, LocalDateTime importDateTime) {
+        put(codespace, importDateTime, LOCAL_PARTITION, 0);
+    }
+
+    /**
+     * Register the import date of a codespace, read from the import event at the given offset of the given partition.
+     * The import date is truncated to the second.
+     */
+    public void put(String codespace, LocalDateTime importDateTime, int partition, long offset) {
+        ImportDateChange change;
+        synchronized (recentChanges) {
+            change = applyUpdate(new ImportDateUpdate(codespace, importDateTime, partition, offset));
+        }
+        publishSnapshot();
+        if (change != null) {
+            notifyChangeListeners(change);
+        }
+    }
+
+    /**
+     * Register the import dates read from a batch of import events, in the order of the events, then advance the
+     * position of the store to the end of the batch.
+     * The batch may contain only some of the events it was read from, for instance the last event per codespace: the
+     * events left out do not record any change, but the store does not read them again once it has reached the position.
+     * The import dates are registered atomically: a snapshot contains either none or all of them.
+     *
+     * @param updates  the import dates, in the order of the events in each partition.
+     * @param position the offset of the last event of the batch per partition.
+     */
+    public void putAll(List<ImportDateUpdate> updates, ImportEventPosition position) {
+        List<ImportDateChange> changes = new ArrayList<>(updates.size());
+        synchronized (recentChanges) {
+            for (ImportDateUpdate update : updates) {
+                ImportDateChange change = applyUpdate(update);
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+            position.offsets().forEach((partition, offset) -> appliedOffsets.merge(partition, offset, Math::max));
+        }
+        publishSnapshot();
+        changes.forEach(this::notifyChangeListeners);
+    }
+
+    /**
+     * Replace the content of the store with import dates restored at the given position.
+     * Listeners can resume from this position onwards. No change is recorded.
+     *
+     * @param epochSecondsByCodespace the import dates in epoch seconds, indexed by codespace.
+     * @param position                the position of the store when the import dates were saved.
+     */
+    public void restore(Map<String, Long> epochSecondsByCodespace, ImportEventPosition position) {
+        synchronized (recentChanges) {
+            importEpochSeconds.clear();
+            epochSecondsByCodespace.forEach((codespace, epochSecond) -> importEpochSeconds.put(normalize(codespace), epochSecond));
+            version.incrementAndGet();
+            recentChanges.clear();
+            appliedOffsets.clear();
+            appliedOffsets.putAll(position.offsets());
+            resumableOffsets.clear();
+            resumableOffsets.putAll(position.offsets());
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Apply an update to the store and record the change. Must be called while holding the lock on recentChanges.
+     *
+     * @return the change, or null if the import date is unchanged or the event was already applied.
+     */
+    private ImportDateChange applyUpdate(ImportDateUpdate update) {
+        int partition = update.partition();
+        long offset;
+        if (partition == LOCAL_PARTITION) {
+            offset = ++localOffset;
+        } else if (update.offset() > appliedOffsets.getOrDefault(partition, -1L)) {
+            offset = update.offset();
+        } else {
+            // replayed event
+            return null;
+        }
+        appliedOffsets.put(partition, offset);
+
+        String normalizedCodespace = normalize(update.codespace());
+        long epochSecond = update.importDateTime().toEpochSecond(ZoneOffset.UTC);
+        Long previousEpochSecond = importEpochSeconds.put(normalizedCodespace, epochSecond);
+        if (previousEpochSecond != null && previousEpochSecond == epochSecond) {
+            return null;
+        }
+        ImportDateChange change = new ImportDateChange(version.incrementAndGet(), normalizedCodespace, epochSecond, partition, offset);
+        if (recentChanges.size() == MAX_RECENT_CHANGES) {
+            ImportDateChange evictedChange = recentChanges.removeFirst();
+            resumableOffsets.put(evictedChange.partition(), evictedChange.offset());
+        }
+        recentChanges.addLast(change);
+        return change;
+    }
+
+    private void notifyChangeListeners(ImportDateChange change) {
+        changeListeners.forEach(listener -> listener.accept(change));
+    }
+
+    /**
+     * Register a listener notified after each change, on the thread that updates the store.
+     * Listeners must not block.
+     */
+    public void addChangeListener(Consumer<ImportDateChange> listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Consumer<ImportDateChange> listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Return the changes made after the given position, in the order they were applied.
+     *
+     * @param position the string representation of a position, as returned by this instance or by another instance.
+     * @return the changes after this position, or null if they cannot be retrieved: the position is invalid, this
+     * instance has not applied all the events up to this position yet, or the changes are too old to be kept in memory.
+     */
+    public ImportDateDelta getChangesSince(String position) {
+        ImportEventPosition sincePosition = ImportEventPosition.parse(position);
+        if (sincePosition == null) {
+            return null;
+        }
+        synchronized (recentChanges) {
+            ImportEventPosition currentPosition = ImportEventPosition.of(appliedOffsets);
+            if (!sincePosition.isNotAfter(currentPosition) || !ImportEventPosition.of(resumableOffsets).isNotAfter(sincePosition)) {
+                return null;
+            }
+            List<ImportDateChange> changes = recentChanges.stream()
+                    .filter(change -> change.offset() > sincePosition.offset(change.partition()))
+                    .toList();
+            return new ImportDateDelta(currentPosition, changes);
+        }
+    }
+
+    /**
+     * Return the import date of the codespace as an ISO local date time, or null if the codespace is unknown.
+     */
+    public String getImportDate(String codespace) {
+        Long epochSecond = importEpochSeconds.get(codespace);
+        if (epochSecond == null) {
+            epochSecond = importEpochSeconds.get(codespace.toLowerCase(Locale.ROOT));
+        }
+        return epochSecond == null ? null : format(epochSecond);
+    }
+
+    /**
+     * Return the import dates of all codespaces as ISO local date times, indexed by codespace.
+     */
+    public Map<String, String> getImportDates() {
+        Map<String, String> importDates = new HashMap<>(importEpochSeconds.size() * 2);
+        importEpochSeconds.forEach((codespace, epochSecond) -> importDates.put(codespace, format(epochSecond)));
+        return importDates;
+    }
+
+    /**
+     * Return an immutable snapshot of the import dates at the current version of the store.
+     * The snapshot is published by the thread that changes the store, it is rebuilt here only if a concurrent change
+     * has not been published yet.
+     */
+    public VersionedImportDates getSnapshot() {
+        return getIndexedSnapshot().importDates();
+    }
+
+    /**
+     * Return the codespaces imported strictly after the given time, from the most recent import.
+     * The query runs on the index of the current snapshot in O(log n + k).
+     *
+     * @param after the time, in the same time zone as the import dates.
+     * @param limit the maximum number of codespaces returned.
+     * @return the import dates as ISO local date times, indexed by codespace, in descending order of import date.
+     */
+    public SequencedMap<String, String> getImportDatesAfter(LocalDateTime after, int limit) {
+        return getIndexedSnapshot().importTimeIndex().importedAfter(after.toEpochSecond(ZoneOffset.UTC), limit);
+    }
+
+    /**
+     * Build the snapshot of the current version, with its encoded representations, on the thread that changed the
+     * store. Must be called after releasing the lock on recentChanges.
+     */
+    private void publishSnapshot() {
+        getIndexedSnapshot();
+    }
+
+    private IndexedSnapshot getIndexedSnapshot() {
+        IndexedSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot != null && currentSnapshot.importDates().version() == version.get()) {
+            return currentSnapshot;
+        }
+        synchronized (this) {
+            long currentVersion;
+            ImportEventPosition position;
+            Map<String, Long> epochSeconds;
+            // the content is copied under the update lock, so that the snapshot matches its version exactly
+            synchronized (recentChanges) {
+                currentVersion = version.get();
+                currentSnapshot = snapshot;
+                if (currentSnapshot != null && currentSnapshot.importDates().version() == currentVersion) {
+                    return currentSnapshot;
+                }
+                position = ImportEventPosition.of(appliedOffsets);
+                epochSeconds = new HashMap<>(importEpochSeconds);
+            }
+            // the snapshot is built outside the update lock, so that the Kafka consumer is not blocked
+            currentSnapshot = new IndexedSnapshot(VersionedImportDates.of(currentVersion, position, epochSeconds), ImportTimeIndex.of(epochSeconds));
+            snapshot = currentSnapshot;
+            return currentSnapshot;
+        }
+    }
+
+    public boolean isEmpty() {
+        return importEpochSeconds.isEmpty();
+    }
+
+    public int size() {
+        return importEpochSeconds.size();
+    }
+
+    public void clear() {
+        synchronized (recentChanges) {
+            importEpochSeconds.clear();
+            version.incrementAndGet();
+            recentChanges.clear();
+            // listeners cannot resume across a clear
+            localOffset++;
+            appliedOffsets.clear();
+            appliedOffsets.put(LOCAL_PARTITION, localOffset);
+            resumableOffsets.clear();
+            resumableOffsets.put(LOCAL_PARTITION, localOffset);
+        }
+        publishSnapshot();
+    }
+
+    private static String normalize(String codespace) {
+        return codespace.toLowerCase(Locale.ROOT).intern();
+    }
+
+    static String format(long epochSecond) {
+        return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC));
+    }
+
+    /**
+     * A snapshot of the import dates with the index of the codespaces ordered by import date, consistent with it.
+     */
+    private record IndexedSnapshot(VersionedImportDates importDates, ImportTimeIndex importTimeIndex) {
+    }
+}
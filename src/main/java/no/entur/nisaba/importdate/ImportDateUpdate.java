@@ -0,0 +1,30 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import java.time.LocalDateTime;
+
+/**
+ * The import date of a codespace read from an import event.
+ *
+ * @param codespace      the codespace.
+ * @param importDateTime the import date.
+ * @param partition      the partition of the import event, or {@link ImportDateStore#LOCAL_PARTITION}.
+ * @param offset         the offset of the import event in its partition.
+ */
+public record ImportDateUpdate(String codespace, LocalDateTime importDateTime, int partition, long offset) {
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import org.apache.camel.spi.StateRepository;
+import org.apache.camel.support.service.ServiceSupport;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory-only store for the offsets of the import event topic.
+ * Unlike {@link org.apache.camel.support.processor.state.MemoryStateRepository}, the content of the store can be
+ * listed, so that the offsets can be saved in an import date snapshot.
+ */
+public class ImportEventOffsetRepository extends ServiceSupport implements StateRepository<String, String> {
+
+    private final Map<String, String> offsets = new ConcurrentHashMap<>();
+
+    @Override
+    public void setState(String key, String value) {
+        offsets.put(key, value);
+    }
+
+    @Override
+    public String getState(String key) {
+        return offsets.get(key);
+    }
+
+    /**
+     * Return a copy of the offsets, indexed by topic partition.
+     */
+    public Map<String, String> getOffsets() {
+        return Map.copyOf(offsets);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+/**
+ * Position of the import date store in the import event topic: the offset of the last applied event, indexed by
+ * partition. Every instance consumes the same topic, so a position identifies the same content on every instance.
+ * The string representation lists the partitions in ascending order, for instance "0:1234,1:567".
+ * A partition that is not listed has no applied event, its offset is -1.
+ */
+public final class ImportEventPosition {
+
+    public static final ImportEventPosition EMPTY = new ImportEventPosition(Collections.emptySortedMap());
+
+    private static final long NO_OFFSET = -1;
+
+    private final SortedMap<Integer, Long> offsets;
+
+    private ImportEventPosition(SortedMap<Integer, Long> offsets) {
+        this.offsets = offsets;
+    }
+
+    /**
+     * Create a position from the offsets of the last applied events, indexed by partition.
+     */
+    public static ImportEventPosition of(Map<Integer, Long> offsets) {
+        return offsets.isEmpty() ? EMPTY : new ImportEventPosition(Collections.unmodifiableSortedMap(new TreeMap<>(offsets)));
+    }
+
+    /**
+     * Parse the string representation of a position.
+     *
+     * @return the position, or null if the string is not a valid position.
+     */
+    public static ImportEventPosition parse(String position) {
+        if (position == null) {
+            return null;
+        }
+        if (position.isEmpty()) {
+            return EMPTY;
+        }
+        SortedMap<Integer, Long> offsets = new TreeMap<>();
+        for (String partitionOffset : position.split(",")) {
+            int separatorIndex = partitionOffset.indexOf(':');
+            if (separatorIndex < 0) {
+                return null;
+            }
+            try {
+                offsets.put(Integer.parseInt(partitionOffset.substring(0, separatorIndex)),
+                        Long.parseLong(partitionOffset.substring(separatorIndex + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return new ImportEventPosition(Collections.unmodifiableSortedMap(offsets));
+    }
+
+    /**
+     * Return the offset of the last applied event in the partition, or -1 if no event was applied.
+     */
+    public long offset(int partition) {
+        return offsets.getOrDefault(partition, NO_OFFSET);
+    }
+
+    /**
+     * Return the offsets of the last applied events, indexed by partition.
+     */
+    public Map<Integer, Long> offsets() {
+        return offsets;
+    }
+
+    /**
+     * Return this position advanced to the given offset in the partition.
+     */
+    public ImportEventPosition with(int partition, long offset) {
+        if (offset(partition) == offset) {
+            return this;
+        }
+        SortedMap<Integer, Long> newOffsets = new TreeMap<>(offsets);
+        newOffsets.put(partition, offset);
+        return new ImportEventPosition(Collections.unmodifiableSortedMap(newOffsets));
+    }
+
+    /**
+     * Return true if no partition of this position is ahead of the other position.
+     */
+    public boolean isNotAfter(ImportEventPosition other) {
+        for (Map.Entry<Integer, Long> partitionOffset : offsets.entrySet()) {
+            if (partitionOffset.getValue() > other.offset(partitionOffset.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ImportEventPosition position && offsets.equals(position.offsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return offsets.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner position = new StringJoiner(",");
+        offsets.forEach((partition, offset) -> position.add(partition + ":" + offset));
+        return position.toString();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+/**
+ * An import of a codespace, as recorded in the import history.
+ *
+ * @param importEpochSecond the import date, in epoch seconds.
+ * @param importKey         the import key of the dataset, or an empty string if the event does not have one.
+ */
+public record ImportHistoryEntry(long importEpochSecond, String importKey) {
+
+    /**
+     * Return the import date as an ISO local date time.
+     */
+    public String importDate() {
+        return ImportDateStore.format(importEpochSecond);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep the most recent imports of each codespace in memory.
+ * Each codespace has a fixed-size history that stores the import dates as epoch seconds in a primitive array, next to
+ * the import keys, in ascending order of import date. The oldest import is dropped when the history is full, so that
+ * the memory used by the history does not depend on the retention of the import event topic.
+ * Lookups are case-insensitive.
+ * This class is populated by the Kafka consumer route (ImportDateMapUpdater) and read by the REST controller.
+ */
+public class ImportHistoryStore {
+
+    private final int historySize;
+    private final Map<String, ImportHistory> historyByCodespace = new ConcurrentHashMap<>(50);
+
+    /**
+     * @param historySize the number of imports kept per codespace.
+     */
+    public ImportHistoryStore(int historySize) {
+        if (historySize <= 0) {
+            throw new IllegalArgumentException("The import history size must be positive: " + historySize);
+        }
+        this.historySize = historySize;
+    }
+
+    /**
+     * Record an import of the codespace. The import date is truncated to the second.
+     */
+    public void record(String codespace, LocalDateTime importDateTime, String importKey) {
+        record(codespace, new ImportHistoryEntry(importDateTime.toEpochSecond(ZoneOffset.UTC), importKey == null ? "" : importKey));
+    }
+
+    /**
+     * Record an import of the codespace.
+     * An import that is already in the history is ignored, so that the events replayed after a restart are not
+     * recorded twice. When the history is full, an import older than all the imports in the history is ignored as well.
+     */
+    public void record(String codespace, ImportHistoryEntry entry) {
+        historyByCodespace.computeIfAbsent(codespace.toLowerCase(Locale.ROOT), c -> new ImportHistory(historySize)).add(entry);
+    }
+
+    /**
+     * Return the most recent imports of the codespace, the most recent first, or null if the codespace is unknown.
+     */
+    public List<ImportHistoryEntry> getHistory(String codespace) {
+        ImportHistory importHistory = historyByCodespace.get(codespace);
+        if (importHistory == null) {
+            importHistory = historyByCodespace.get(codespace.toLowerCase(Locale.ROOT));
+        }
+        return importHistory == null ? null : importHistory.entries();
+    }
+
+    /**
+     * Return a copy of the import history of all codespaces, the most recent import first, indexed by codespace.
+     */
+    public Map<String, List<ImportHistoryEntry>> getHistories() {
+        Map<String, List<ImportHistoryEntry>> histories = new HashMap<>(historyByCodespace.size() * 2);
+        historyByCodespace.forEach((codespace, importHistory) -> histories.put(codespace, importHistory.entries()));
+        return histories;
+    }
+
+    /**
+     * Record the imports returned by {@link #getHistories()}.
+     */
+    public void putAll(Map<String, List<ImportHistoryEntry>> histories) {
+        histories.forEach((codespace, entries) -> entries.reversed().forEach(entry -> record(codespace, entry)));
+    }
+
+    public void clear() {
+        historyByCodespace.clear();
+    }
+
+    /**
+     * The most recent imports of a codespace, in ascending order of import date.
+     * Imports with the same import date are kept in the order they were recorded.
+     */
+    private static final class ImportHistory {
+
+        private final long[] importEpochSeconds;
+        private final String[] importKeys;
+        private int size;
+
+        private ImportHistory(int capacity) {
+            importEpochSeconds = new long[capacity];
+            importKeys = new String[capacity];
+        }
+
+        private synchronized void add(ImportHistoryEntry entry) {
+            long importEpochSecond = entry.importEpochSecond();
+            // the import is inserted after the imports recorded at the same time or before
+            int index = size;
+            while (index > 0 && importEpochSeconds[index - 1] > importEpochSecond) {
+                index--;
+            }
+            for (int i = index - 1; i >= 0 && importEpochSeconds[i] == importEpochSecond; i--) {
+                if (importKeys[i].equals(entry.importKey())) {
+                    return;
+                }
+            }
+            if (size == importEpochSeconds.length) {
+                if (index == 0) {
+                    // older than all the imports in the history
+                    return;
+                }
+                // drop the oldest import
+                System.arraycopy(importEpochSeconds, 1, importEpochSeconds, 0, index - 1);
+                System.arraycopy(importKeys, 1, importKeys, 0, index - 1);
+                index--;
+            } else {
+                System.arraycopy(importEpochSeconds, index, importEpochSeconds, index + 1, size - index);
+                System.arraycopy(importKeys, index, importKeys, index + 1, size - index);
+                size++;
+            }
+            importEpochSeconds[index] = importEpochSecond;
+            importKeys[index] = entry.importKey();
+        }
+
+        private synchronized List<ImportHistoryEntry> entries() {
+            List<ImportHistoryEntry> entries = new ArrayList<>(size);
+            for (int i = size - 1; i >= 0; i--) {
+                entries.add(new ImportHistoryEntry(importEpochSeconds[i], importKeys[i]));
+            }
+            return entries;
+        }
+    }
+}
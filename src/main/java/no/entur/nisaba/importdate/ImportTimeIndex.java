@@ -0,0 +1,87 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SequencedMap;
+
+/**
+ * Immutable index of the codespaces ordered by import date, built by the import date store together with a snapshot
+ * of the import dates.
+ * The import dates and the codespaces are stored in two parallel arrays sorted by import date, then by codespace.
+ * A query for the codespaces imported after a given time is a binary search followed by a scan of the k results,
+ * from the most recent import.
+ */
+final class ImportTimeIndex {
+
+    private final long[] epochSeconds;
+    private final String[] codespaces;
+
+    private ImportTimeIndex(long[] epochSeconds, String[] codespaces) {
+        this.epochSeconds = epochSeconds;
+        this.codespaces = codespaces;
+    }
+
+    static ImportTimeIndex of(Map<String, Long> epochSecondsByCodespace) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(epochSecondsByCodespace.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.naturalOrder())));
+        long[] epochSeconds = new long[entries.size()];
+        String[] codespaces = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            epochSeconds[i] = entries.get(i).getValue();
+            codespaces[i] = entries.get(i).getKey();
+        }
+        return new ImportTimeIndex(epochSeconds, codespaces);
+    }
+
+    /**
+     * Return the codespaces imported strictly after the given time with their import date, from the most recent import.
+     *
+     * @param afterEpochSecond the time, in epoch seconds.
+     * @param limit            the maximum number of codespaces returned.
+     * @return the import dates as ISO local date times, indexed by codespace, in descending order of import date.
+     */
+    SequencedMap<String, String> importedAfter(long afterEpochSecond, int limit) {
+        int first = firstIndexAfter(afterEpochSecond);
+        SequencedMap<String, String> importDates = new LinkedHashMap<>();
+        for (int i = epochSeconds.length - 1; i >= first && importDates.size() < limit; i--) {
+            importDates.put(codespaces[i], ImportDateStore.format(epochSeconds[i]));
+        }
+        return importDates;
+    }
+
+    /**
+     * Return the index of the first import strictly after the given time, or the length of the index if there is none.
+     */
+    private int firstIndexAfter(long epochSecond) {
+        int low = 0;
+        int high = epochSeconds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (epochSeconds[middle] <= epochSecond) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
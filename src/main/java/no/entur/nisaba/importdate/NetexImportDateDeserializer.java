@@ -0,0 +1,48 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import io.confluent.kafka.serializers.KafkaAvroDeserializer;
+import no.entur.nisaba.avro.NetexImportDate;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+
+/**
+ * Deserialize {@link no.entur.nisaba.avro.NetexImportEvent} records into the {@link NetexImportDate} projection.
+ * The projection is used as the reader schema in Avro schema resolution: the fields of the writer schema that are not
+ * in the projection are skipped by the decoder instead of being materialized.
+ */
+public class NetexImportDateDeserializer implements Deserializer<Object> {
+
+    private final KafkaAvroDeserializer kafkaAvroDeserializer = new KafkaAvroDeserializer();
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        kafkaAvroDeserializer.configure(configs, isKey);
+    }
+
+    @Override
+    public Object deserialize(String topic, byte[] data) {
+        return kafkaAvroDeserializer.deserialize(topic, data, NetexImportDate.getClassSchema());
+    }
+
+    @Override
+    public void close() {
+        kafkaAvroDeserializer.close();
+    }
+}
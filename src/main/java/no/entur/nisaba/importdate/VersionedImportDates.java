@@ -0,0 +1,212 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.entur.nisaba.avro.ImportDates;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable snapshot of the import dates at a given version of the import date store.
+ * The snapshot is a read-only map of the import dates as ISO local date times, indexed by codespace in alphabetical
+ * order, so that it can be returned as is by the REST API.
+ * The snapshot is encoded in every format served by the REST API, plain and gzip-compressed, when it is created: the
+ * import dates are serialized once per snapshot, when the store publishes it, instead of on each request.
+ */
+public final class VersionedImportDates extends AbstractMap<String, String> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final DatumWriter<ImportDates> AVRO_WRITER = new SpecificDatumWriter<>(ImportDates.class);
+
+    /**
+     * The formats of the encoded import dates.
+     */
+    public enum Format {
+        /**
+         * A JSON object of the import dates as ISO local date times, indexed by codespace.
+         */
+        JSON,
+        /**
+         * The binary encoding of the {@link ImportDates} Avro record.
+         */
+        AVRO
+    }
+
+    /**
+     * The import dates encoded in a given format and content encoding, with their strong entity tag.
+     * The body must not be modified.
+     */
+    public record Representation(byte[] body, String eTag) {
+    }
+
+    private final long version;
+    private final ImportEventPosition position;
+    private final Map<String, Long> epochSeconds;
+    private final SortedMap<String, String> importDates;
+    private final String contentHash;
+    // indexed by format, then plain before gzip-compressed
+    private final Representation[] representations;
+
+    private VersionedImportDates(long version, ImportEventPosition position, Map<String, Long> epochSeconds,
+                                 SortedMap<String, String> importDates, String contentHash) {
+        this.version = version;
+        this.position = position;
+        this.epochSeconds = epochSeconds;
+        this.importDates = importDates;
+        this.contentHash = contentHash;
+        this.representations = new Representation[2 * Format.values().length];
+        for (Format format : Format.values()) {
+            byte[] body = encode(format);
+            String eTagPrefix = '"' + contentHash + '-' + format.name().toLowerCase(Locale.ROOT);
+            representations[2 * format.ordinal()] = new Representation(body, eTagPrefix + '"');
+            representations[2 * format.ordinal() + 1] = new Representation(gzip(body), eTagPrefix + "-gzip\"");
+        }
+    }
+
+    /**
+     * Create a snapshot of the import dates.
+     *
+     * @param version      the version of the import date store.
+     * @param position     the position of the import date store in the import event topic.
+     * @param epochSeconds the import dates in epoch seconds, indexed by codespace.
+     */
+    static VersionedImportDates of(long version, ImportEventPosition position, Map<String, Long> epochSeconds) {
+        SortedMap<String, String> importDates = new TreeMap<>();
+        epochSeconds.forEach((codespace, epochSecond) -> importDates.put(codespace, ImportDateStore.format(epochSecond)));
+        return new VersionedImportDates(version, position, Map.copyOf(epochSeconds), Collections.unmodifiableSortedMap(importDates), contentHash(importDates));
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Return the position of the import date store in the import event topic when the snapshot was taken.
+     */
+    public ImportEventPosition position() {
+        return position;
+    }
+
+    /**
+     * Return the import dates in epoch seconds, indexed by codespace.
+     */
+    public Map<String, Long> epochSeconds() {
+        return epochSeconds;
+    }
+
+    /**
+     * Return a hash of the import dates. Snapshots with the same import dates have the same hash, on every instance.
+     */
+    public String contentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Return the import dates encoded in the given format, gzip-compressed or not.
+     * The entity tag of a representation is derived from the content hash, so it is the same on every instance.
+     */
+    public Representation representation(Format format, boolean gzip) {
+        return representations[2 * format.ordinal() + (gzip ? 1 : 0)];
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return importDates.entrySet();
+    }
+
+    @Override
+    public String get(Object codespace) {
+        return importDates.get(codespace);
+    }
+
+    @Override
+    public boolean containsKey(Object codespace) {
+        return importDates.containsKey(codespace);
+    }
+
+    @Override
+    public int size() {
+        return importDates.size();
+    }
+
+    private static String contentHash(SortedMap<String, String> importDates) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            importDates.forEach((codespace, importDate) -> {
+                digest.update(codespace.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '=');
+                digest.update(importDate.getBytes(StandardCharsets.US_ASCII));
+                digest.update((byte) '\n');
+            });
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] encode(Format format) {
+        try {
+            return switch (format) {
+                case JSON -> OBJECT_MAPPER.writeValueAsBytes(importDates);
+                case AVRO -> avro(epochSeconds);
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] avro(Map<String, Long> epochSeconds) throws IOException {
+        Map<CharSequence, Long> sortedEpochSeconds = new TreeMap<>(Comparator.comparing(CharSequence::toString));
+        sortedEpochSeconds.putAll(epochSeconds);
+        ImportDates avroImportDates = ImportDates.newBuilder().setImportDates(sortedEpochSeconds).build();
+        ByteArrayOutputStream content = new ByteArrayOutputStream(16 * sortedEpochSeconds.size() + 16);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(content, null);
+        AVRO_WRITER.write(avroImportDates, encoder);
+        encoder.flush();
+        return content.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream compressedContent = new ByteArrayOutputStream(content.length / 2 + 32);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedContent)) {
+            gzipOutputStream.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressedContent.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+import static no.entur.nisaba.Constants.NETEX_NAMESPACE;
+
+/**
+ * Extract the "created" attribute of the CompositeFrame from a NeTEx document.
+ * The document is read with a streaming StAX parser (Woodstox at runtime) that stops as soon as the
+ * element PublicationDelivery/dataObjects/CompositeFrame is found, so that only the beginning of the document is parsed.
+ */
+public final class CompositeFrameCreatedAttributeParser {
+
+    private static final String PUBLICATION_DELIVERY = "PublicationDelivery";
+    private static final String DATA_OBJECTS = "dataObjects";
+    private static final String COMPOSITE_FRAME = "CompositeFrame";
+    private static final String CREATED = "created";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    private CompositeFrameCreatedAttributeParser() {
+    }
+
+    /**
+     * Return the "created" attribute of the first CompositeFrame in the document.
+     *
+     * @param netexDocument the NeTEx XML document. The stream is not closed by this method.
+     * @return the value of the "created" attribute, or null if the CompositeFrame or the attribute is missing.
+     * @throws XMLStreamException if the beginning of the document is not well-formed XML.
+     */
+    public static String parseCreatedAttribute(InputStream netexDocument) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(netexDocument);
+        try {
+            int depth = 0;
+            boolean inDataObjects = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 1 && !isNetexElement(reader, PUBLICATION_DELIVERY)) {
+                        return null;
+                    }
+                    if (depth == 2 && isNetexElement(reader, DATA_OBJECTS)) {
+                        inDataObjects = true;
+                    } else if (depth == 3 && inDataObjects && isNetexElement(reader, COMPOSITE_FRAME)) {
+                        return reader.getAttributeValue(null, CREATED);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 2 && inDataObjects) {
+                        // no CompositeFrame in dataObjects
+                        return null;
+                    }
+                    depth--;
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean isNetexElement(XMLStreamReader reader, String localName) {
+        return localName.equals(reader.getLocalName()) && NETEX_NAMESPACE.equals(reader.getNamespaceURI());
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return xmlInputFactory;
+    }
+
+}
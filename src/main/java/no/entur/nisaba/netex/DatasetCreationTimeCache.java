@@ -0,0 +1,95 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import no.entur.nisaba.Constants;
+import org.apache.camel.Header;
+import org.apache.camel.spi.StateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Cache the creation times retrieved from a NeTEx archive, indexed by codespace and archive fingerprint.
+ * The cache holds one entry per codespace: caching the creation times of a new version of the archive evicts the
+ * creation times of the previous version.
+ */
+@Component
+public class DatasetCreationTimeCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatasetCreationTimeCache.class);
+
+    private static final char FINGERPRINT_SEPARATOR = '|';
+    private static final String CREATION_TIME_SEPARATOR = ",";
+
+    private final StateRepository<String, String> creationTimeCacheRepo;
+
+    public DatasetCreationTimeCache(@Qualifier("netexCreationTimeCacheRepo") StateRepository<String, String> creationTimeCacheRepo) {
+        this.creationTimeCacheRepo = creationTimeCacheRepo;
+    }
+
+    /**
+     * Return the creation times cached for this version of the archive.
+     *
+     * @return the cached creation times, or null if they are not in the cache or if the cached value cannot be parsed.
+     */
+    public TreeSet<LocalDateTime> get(@Header(value = Constants.DATASET_CODESPACE) String codespace,
+                                      @Header(value = Constants.DATASET_BLOB_FINGERPRINT) String fingerprint) {
+        if (codespace == null || fingerprint == null) {
+            return null;
+        }
+        String cachedValue = creationTimeCacheRepo.getState(codespace);
+        if (cachedValue == null) {
+            return null;
+        }
+        int separatorIndex = cachedValue.indexOf(FINGERPRINT_SEPARATOR);
+        if (separatorIndex < 0 || !fingerprint.equals(cachedValue.substring(0, separatorIndex))) {
+            return null;
+        }
+        try {
+            return Arrays.stream(cachedValue.substring(separatorIndex + 1).split(CREATION_TIME_SEPARATOR))
+                    .map(LocalDateTime::parse)
+                    .collect(Collectors.toCollection(TreeSet::new));
+        } catch (DateTimeParseException e) {
+            LOGGER.warn("Ignoring malformed cached creation times for codespace {}: {}", codespace, cachedValue);
+            return null;
+        }
+    }
+
+    /**
+     * Cache the creation times for this version of the archive, replacing any previous entry for the codespace.
+     */
+    public void put(@Header(value = Constants.DATASET_CODESPACE) String codespace,
+                    @Header(value = Constants.DATASET_BLOB_FINGERPRINT) String fingerprint,
+                    @Header(value = Constants.DATASET_ALL_CREATION_TIMES) Collection<LocalDateTime> creationTimes) {
+        if (codespace == null || fingerprint == null || creationTimes == null || creationTimes.isEmpty()) {
+            return;
+        }
+        String creationTimesValue = creationTimes.stream()
+                .map(LocalDateTime::toString)
+                .collect(Collectors.joining(CREATION_TIME_SEPARATOR));
+        creationTimeCacheRepo.setState(codespace, fingerprint + FINGERPRINT_SEPARATOR + creationTimesValue);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import org.apache.camel.spi.StateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+
+/**
+ * Cache the creation time of the XML entries of the last NeTEx archive scanned for each codespace.
+ * An entry is identified by its content key, made of the CRC-32 and the size recorded in the central directory of the
+ * archive: an entry with the same content key in the next archive of the codespace has the same creation time.
+ * The cache holds one value per codespace: caching the entries of a new archive evicts the entries of the previous
+ * archive, including the entries that were removed from the archive.
+ */
+@Component
+public class NetexArchiveEntryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetexArchiveEntryCache.class);
+
+    private static final char CREATION_TIME_SEPARATOR = '|';
+    private static final String ENTRY_SEPARATOR = ",";
+
+    private final StateRepository<String, String> archiveEntryCacheRepo;
+
+    public NetexArchiveEntryCache(@Qualifier("netexArchiveEntryCacheRepo") StateRepository<String, String> archiveEntryCacheRepo) {
+        this.archiveEntryCacheRepo = archiveEntryCacheRepo;
+    }
+
+    /**
+     * Return the content key of a zip entry.
+     *
+     * @return the content key, or null if the CRC-32 or the size of the entry is unknown.
+     */
+    static String contentKey(ZipEntry zipEntry) {
+        if (zipEntry.getCrc() == -1 || zipEntry.getSize() == -1) {
+            return null;
+        }
+        return Long.toHexString(zipEntry.getCrc()) + '-' + zipEntry.getSize();
+    }
+
+    /**
+     * Return the creation times of the entries of the last archive scanned for this codespace.
+     *
+     * @return the creation times indexed by content key. The map is empty if the codespace is not in the cache or if
+     * the cached value cannot be parsed.
+     */
+    Map<String, LocalDateTime> get(String codespace) {
+        String cachedValue = codespace == null ? null : archiveEntryCacheRepo.getState(codespace);
+        if (cachedValue == null || cachedValue.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, LocalDateTime> creationTimes = new HashMap<>();
+        try {
+            for (String cachedEntry : cachedValue.split(ENTRY_SEPARATOR)) {
+                int separatorIndex = cachedEntry.indexOf(CREATION_TIME_SEPARATOR);
+                if (separatorIndex < 0) {
+                    throw new IllegalArgumentException("Missing creation time");
+                }
+                creationTimes.put(cachedEntry.substring(0, separatorIndex), LocalDateTime.parse(cachedEntry.substring(separatorIndex + 1)));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            LOGGER.warn("[codespace={}] Ignoring malformed cached archive entries: {}", codespace, e.getMessage());
+            return Map.of();
+        }
+        return creationTimes;
+    }
+
+    /**
+     * Cache the creation times of the entries of the archive, replacing any previous value for the codespace.
+     *
+     * @param creationTimes the creation times indexed by content key.
+     */
+    void put(String codespace, Map<String, LocalDateTime> creationTimes) {
+        if (codespace == null) {
+            return;
+        }
+        archiveEntryCacheRepo.setState(codespace, creationTimes.entrySet().stream()
+                .map(entry -> entry.getKey() + CREATION_TIME_SEPARATOR + entry.getValue())
+                .collect(Collectors.joining(ENTRY_SEPARATOR)));
+    }
+}
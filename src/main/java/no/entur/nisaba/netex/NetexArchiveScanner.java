@@ -0,0 +1,285 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import no.entur.nisaba.Constants;
+import org.apache.camel.Body;
+import org.apache.camel.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Retrieve the creation times of the CompositeFrames in a NeTEx archive.
+ * The archive is spooled to a temporary file and opened as a {@link ZipFile}, which reads the central directory and
+ * gives random access to the entries. Only XML entries are inflated, non-XML entries are skipped without being read.
+ * The CompositeFrame is located at the beginning of NeTEx documents: each XML entry is first inflated up to a
+ * maximum prefix size and the inflation stops as soon as the CompositeFrame start tag is parsed. The entry is read again
+ * in full only if the CompositeFrame is not found within the prefix.
+ * When an executor service is provided, the XML entries are inflated and parsed concurrently.
+ * The creation time extracted from each entry is cached per codespace in a {@link NetexArchiveEntryCache}, together
+ * with the CRC-32 and the size of the entry, as recorded in the central directory. When the next archive of the same
+ * codespace is scanned, only the entries that have changed are parsed, the creation time of the unchanged entries is
+ * reused.
+ */
+public class NetexArchiveScanner {
+
+    /**
+     * Creation time used for documents that do not have a "created" attribute in their CompositeFrame.
+     */
+    public static final LocalDateTime EPOCH = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetexArchiveScanner.class);
+
+    private final ExecutorService executorService;
+    private final long maxPrefixSize;
+    private final NetexArchiveEntryCache archiveEntryCache;
+
+    /**
+     * @param executorService   the executor service used for parsing the entries in parallel, or null for sequential parsing.
+     * @param maxPrefixSize     the maximum number of inflated bytes read from an entry before falling back to a full read.
+     *                          A value less than or equal to 0 disables the limit.
+     * @param archiveEntryCache the cache of the creation times of the entries of the last scanned archive per codespace.
+     */
+    public NetexArchiveScanner(ExecutorService executorService, long maxPrefixSize, NetexArchiveEntryCache archiveEntryCache) {
+        this.executorService = executorService;
+        this.maxPrefixSize = maxPrefixSize;
+        this.archiveEntryCache = archiveEntryCache;
+    }
+
+    /**
+     * Return the set of all CompositeFrame creation times found in the XML files of the archive.
+     *
+     * @param archive   the NeTEx archive.
+     * @param codespace the dataset codespace, used for logging.
+     * @return the creation times sorted in chronological order. The last element is the most recent creation time.
+     */
+    public TreeSet<LocalDateTime> retrieveCreationTimes(@Body InputStream archive, @Header(Constants.DATASET_CODESPACE) String codespace) throws IOException, InterruptedException {
+        Path spooledArchive = Files.createTempFile("nisaba-netex-", ".zip");
+        try {
+            Files.copy(archive, spooledArchive, StandardCopyOption.REPLACE_EXISTING);
+            try (ZipFile zipFile = new ZipFile(spooledArchive.toFile())) {
+                TreeSet<LocalDateTime> creationTimes = retrieveCreationTimes(zipFile, codespace);
+                if (creationTimes.isEmpty()) {
+                    throw new IllegalStateException("The NeTEx archive does not contain any XML file");
+                }
+                return creationTimes;
+            }
+        } finally {
+            Files.deleteIfExists(spooledArchive);
+        }
+    }
+
+    private TreeSet<LocalDateTime> retrieveCreationTimes(ZipFile zipFile, String codespace) throws IOException, InterruptedException {
+        List<ZipEntry> xmlEntries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (entry.getName().endsWith(".xml")) {
+                xmlEntries.add(entry);
+            } else {
+                LOGGER.info("[codespace={}] Ignoring non-XML file {}", codespace, entry.getName());
+            }
+        }
+
+        Map<String, LocalDateTime> previousCreationTimes = archiveEntryCache.get(codespace);
+        Map<String, LocalDateTime> cachedCreationTimes = new HashMap<>();
+        TreeSet<LocalDateTime> creationTimes = new TreeSet<>();
+        List<ZipEntry> changedEntries = new ArrayList<>();
+        for (ZipEntry xmlEntry : xmlEntries) {
+            LocalDateTime previousCreationTime = previousCreationTimes.get(NetexArchiveEntryCache.contentKey(xmlEntry));
+            if (previousCreationTime != null) {
+                cachedCreationTimes.put(NetexArchiveEntryCache.contentKey(xmlEntry), previousCreationTime);
+                creationTimes.add(previousCreationTime);
+            } else {
+                changedEntries.add(xmlEntry);
+            }
+        }
+        LOGGER.debug("[codespace={}] Reusing the creation time of {} unchanged XML files, parsing {} new or modified XML files",
+                codespace, xmlEntries.size() - changedEntries.size(), changedEntries.size());
+
+        if (executorService == null) {
+            for (ZipEntry changedEntry : changedEntries) {
+                addCreationTime(changedEntry, parseCreationTime(zipFile, changedEntry, codespace), creationTimes, cachedCreationTimes);
+            }
+        } else {
+            List<Future<LocalDateTime>> futures = new ArrayList<>(changedEntries.size());
+            try {
+                for (ZipEntry changedEntry : changedEntries) {
+                    futures.add(executorService.submit(() -> parseCreationTime(zipFile, changedEntry, codespace)));
+                }
+                for (int i = 0; i < changedEntries.size(); i++) {
+                    addCreationTime(changedEntries.get(i), futures.get(i).get(), creationTimes, cachedCreationTimes);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                // stop the remaining tasks before the zip file is closed
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+
+        if (!creationTimes.isEmpty()) {
+            // entries removed from the archive are evicted together with the previous scan
+            archiveEntryCache.put(codespace, cachedCreationTimes);
+        }
+        return creationTimes;
+    }
+
+    private static void addCreationTime(ZipEntry xmlEntry, LocalDateTime creationTime, TreeSet<LocalDateTime> creationTimes, Map<String, LocalDateTime> cachedCreationTimes) {
+        creationTimes.add(creationTime);
+        String contentKey = NetexArchiveEntryCache.contentKey(xmlEntry);
+        if (contentKey != null) {
+            cachedCreationTimes.put(contentKey, creationTime);
+        }
+    }
+
+    private LocalDateTime parseCreationTime(ZipFile zipFile, ZipEntry xmlEntry, String codespace) throws IOException {
+        String created = parseCreatedAttribute(zipFile, xmlEntry);
+        if (created == null || created.isEmpty()) {
+            LOGGER.warn("[codespace={}] 'created' attribute not found in file {}", codespace, xmlEntry.getName());
+            return EPOCH;
+        }
+        return LocalDateTime.parse(created);
+    }
+
+    private String parseCreatedAttribute(ZipFile zipFile, ZipEntry xmlEntry) throws IOException {
+        if (maxPrefixSize > 0) {
+            // closing the entry stream discards the rest of the entry without inflating it
+            try (PrefixInputStream prefixInputStream = new PrefixInputStream(openEntry(zipFile, xmlEntry), maxPrefixSize)) {
+                return CompositeFrameCreatedAttributeParser.parseCreatedAttribute(prefixInputStream);
+            } catch (XMLStreamException e) {
+                if (!PrefixInputStream.isTruncated(e)) {
+                    throw new IOException("Failed to parse XML file " + xmlEntry.getName(), e);
+                }
+                LOGGER.debug("CompositeFrame not found in the first {} bytes of file {}, reading the whole file", maxPrefixSize, xmlEntry.getName());
+            }
+        }
+        try (InputStream entryInputStream = openEntry(zipFile, xmlEntry)) {
+            return CompositeFrameCreatedAttributeParser.parseCreatedAttribute(entryInputStream);
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse XML file " + xmlEntry.getName(), e);
+        }
+    }
+
+    /**
+     * Return a stream of the inflated content of the entry.
+     */
+    InputStream openEntry(ZipFile zipFile, ZipEntry xmlEntry) throws IOException {
+        return zipFile.getInputStream(xmlEntry);
+    }
+
+    /**
+     * An input stream that returns at most a given number of bytes from the underlying stream.
+     * Reaching the limit raises an exception so that a document truncated by the limit is not mistaken for a complete document.
+     */
+    private static final class PrefixInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private PrefixInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.remaining = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                throw new PrefixLimitReachedException();
+            }
+            int result = super.read();
+            if (result != -1) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                throw new PrefixLimitReachedException();
+            }
+            int result = super.read(b, off, (int) Math.min(len, remaining));
+            if (result > 0) {
+                remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private static boolean isTruncated(Throwable e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof PrefixLimitReachedException) {
+                    return true;
+                }
+                if (cause instanceof XMLStreamException xmlStreamException && xmlStreamException.getNestedException() instanceof PrefixLimitReachedException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class PrefixLimitReachedException extends IOException {
+        private PrefixLimitReachedException() {
+            super("Maximum prefix size reached");
+        }
+    }
+}
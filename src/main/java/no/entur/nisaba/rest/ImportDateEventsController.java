@@ -0,0 +1,264 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.rest;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import no.entur.nisaba.importdate.ImportDateChange;
+import no.entur.nisaba.importdate.ImportDateDelta;
+import no.entur.nisaba.importdate.ImportDateStore;
+import no.entur.nisaba.importdate.ImportEventPosition;
+import no.entur.nisaba.importdate.VersionedImportDates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * REST controller that streams the changes of import dates as Server-Sent Events.
+ * The endpoint is described in the OpenAPI contract, under a separate tag that is excluded from code generation:
+ * Server-Sent Events do not map to the generated interface, hence this controller is written by hand.
+ *
+ * A client that connects without a last-seen version first receives an "import-dates" event with all the import dates,
+ * then an "import-date" event for each change. Each event has an id that identifies the version of the store.
+ * A client that reconnects with this id, in the Last-Event-ID header or in the "since" query parameter, receives only
+ * the changes it has missed, or all the import dates if the missed changes are no longer available.
+ * The id is the position of the store in the import event topic, so a client can reconnect to any instance.
+ *
+ * Each client has a bounded queue of pending changes, drained by a task of a fixed-size pool of sender threads while
+ * the queue is not empty, so that a slow client does not block the Kafka consumer and holds at most one sender thread.
+ * The stream of a client whose queue is full is completed: the client reconnects and resumes from the last event it
+ * received.
+ */
+@RestController
+public class ImportDateEventsController {
+
+    static final String IMPORT_DATES_EVENT = "import-dates";
+    static final String IMPORT_DATE_EVENT = "import-date";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportDateEventsController.class);
+
+    private final ImportDateStore importDateStore;
+    private final long emitterTimeout;
+    private final Duration heartbeatInterval;
+    private final int queueSize;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    // SseEmitter.send holds a monitor while it writes, which would pin a virtual thread: platform threads are used
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "nisaba-import-date-events-heartbeat"));
+    private final Consumer<ImportDateChange> changeListener = this::onImportDateChange;
+
+    public ImportDateEventsController(ImportDateStore importDateStore,
+                                      @Value("${nisaba.import.date.events.timeout:PT30M}") Duration emitterTimeout,
+                                      @Value("${nisaba.import.date.events.heartbeat.interval:PT30S}") Duration heartbeatInterval,
+                                      @Value("${nisaba.import.date.events.queue.size:256}") int queueSize,
+                                      @Value("${nisaba.import.date.events.sender.threads:8}") int senderThreads) {
+        this.importDateStore = importDateStore;
+        this.emitterTimeout = emitterTimeout.toMillis();
+        this.heartbeatInterval = heartbeatInterval;
+        this.queueSize = queueSize;
+        this.senders = Executors.newFixedThreadPool(senderThreads,
+                Thread.ofPlatform().name("nisaba-import-date-events-", 0).daemon().factory());
+    }
+
+    @PostConstruct
+    void start() {
+        importDateStore.addChangeListener(changeListener);
+        heartbeatScheduler.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatInterval.toMillis(), heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        importDateStore.removeChangeListener(changeListener);
+        heartbeatScheduler.shutdownNow();
+        subscriptions.forEach(subscription -> subscription.close(null));
+        senders.shutdownNow();
+    }
+
+    @GetMapping(value = "/timetable-import-info/import_date_events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamImportDateChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                              @RequestParam(value = "since", required = false) String since) {
+        String lastSeenVersion = lastEventId != null ? lastEventId : since;
+        LOGGER.info("Received request to stream import date changes since version '{}'", lastSeenVersion);
+
+        SseEmitter emitter = new SseEmitter(emitterTimeout);
+        Subscription subscription = new Subscription(emitter, lastSeenVersion);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> subscription.cancel());
+        // the subscription is registered before the initial events are read from the store, so that no change is lost
+        subscriptions.add(subscription);
+        subscription.scheduleSend();
+        return emitter;
+    }
+
+    /**
+     * Queue the change for every client. Runs on the thread that updates the store and never blocks.
+     */
+    private void onImportDateChange(ImportDateChange change) {
+        subscriptions.forEach(subscription -> subscription.queue(change));
+    }
+
+    private void sendHeartbeat() {
+        subscriptions.forEach(Subscription::requestHeartbeat);
+    }
+
+    /**
+     * State of a client stream. The events are sent by at most one sender thread at a time.
+     */
+    private final class Subscription {
+
+        private final SseEmitter emitter;
+        private final String lastSeenVersion;
+        private final BlockingQueue<ImportDateChange> pendingChanges = new ArrayBlockingQueue<>(queueSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile boolean heartbeatRequested;
+        private volatile boolean closed;
+
+        // accessed only by the sender thread
+        private boolean initialEventsSent;
+        private ImportEventPosition position;
+
+        private Subscription(SseEmitter emitter, String lastSeenVersion) {
+            this.emitter = emitter;
+            this.lastSeenVersion = lastSeenVersion;
+        }
+
+        private void queue(ImportDateChange change) {
+            if (closed) {
+                return;
+            }
+            if (!pendingChanges.offer(change)) {
+                LOGGER.info("The client does not read the import date events fast enough, closing the stream");
+                // the emitter is completed by a sender thread: completing it waits for a write in progress
+                cancel();
+                senders.execute(emitter::complete);
+                return;
+            }
+            scheduleSend();
+        }
+
+        private void requestHeartbeat() {
+            heartbeatRequested = true;
+            scheduleSend();
+        }
+
+        private void scheduleSend() {
+            if (!closed && sending.compareAndSet(false, true)) {
+                senders.execute(this::send);
+            }
+        }
+
+        private void send() {
+            try {
+                if (!initialEventsSent) {
+                    sendInitialEvents();
+                    initialEventsSent = true;
+                }
+                ImportDateChange change;
+                while (!closed && (change = pendingChanges.poll()) != null) {
+                    sendChange(change);
+                }
+                if (heartbeatRequested && !closed) {
+                    heartbeatRequested = false;
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                }
+            } catch (IOException | IllegalStateException e) {
+                LOGGER.debug("Failed to send an import date event, closing the stream", e);
+                close(e);
+            } finally {
+                sending.set(false);
+            }
+            // an event queued after the queue was drained and before the sending flag was reset is sent by a new task
+            if (!pendingChanges.isEmpty() || heartbeatRequested) {
+                scheduleSend();
+            }
+        }
+
+        /**
+         * Send the missed changes, or all the import dates. The changes queued in the meantime that are already
+         * included in these events are skipped.
+         */
+        private void sendInitialEvents() throws IOException {
+            ImportDateDelta missedChanges = lastSeenVersion == null ? null : importDateStore.getChangesSince(lastSeenVersion);
+            if (missedChanges == null) {
+                VersionedImportDates importDates = importDateStore.getSnapshot();
+                emitter.send(SseEmitter.event()
+                        .name(IMPORT_DATES_EVENT)
+                        .id(importDates.position().toString())
+                        .data(importDates, MediaType.APPLICATION_JSON));
+                position = importDates.position();
+            } else {
+                position = ImportEventPosition.parse(lastSeenVersion);
+                for (ImportDateChange change : missedChanges.changes()) {
+                    sendChange(change);
+                }
+            }
+        }
+
+        private void sendChange(ImportDateChange change) throws IOException {
+            if (change.offset() <= position.offset(change.partition())) {
+                // already sent
+                return;
+            }
+            ImportEventPosition newPosition = position.with(change.partition(), change.offset());
+            emitter.send(SseEmitter.event()
+                    .name(IMPORT_DATE_EVENT)
+                    .id(newPosition.toString())
+                    .data(Map.of("codespace", change.codespace(), "importDate", change.importDate()), MediaType.APPLICATION_JSON));
+            position = newPosition;
+        }
+
+        /**
+         * Stop sending events to the client, without completing the emitter.
+         */
+        private void cancel() {
+            closed = true;
+            subscriptions.remove(this);
+            pendingChanges.clear();
+        }
+
+        private void close(Throwable e) {
+            cancel();
+            if (e == null) {
+                emitter.complete();
+            } else {
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}
@@ -16,22 +16,44 @@
 
 package no.entur.nisaba.rest;
 
+import jakarta.servlet.http.HttpServletRequest;
+import no.entur.nisaba.importdate.ImportDateChange;
+import no.entur.nisaba.importdate.ImportDateDelta;
+import no.entur.nisaba.importdate.ImportDateStore;
+import no.entur.nisaba.importdate.ImportHistoryEntry;
+import no.entur.nisaba.importdate.ImportHistoryStore;
+import no.entur.nisaba.importdate.VersionedImportDates;
 import no.entur.nisaba.rest.api.TimetableImportInfoApi;
+import no.entur.nisaba.rest.model.CodespaceImportDate;
+import no.entur.nisaba.rest.model.ImportDateChanges;
+import no.entur.nisaba.rest.model.ImportDatesByCodespaces;
+import no.entur.nisaba.rest.model.ImportHistoryItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * REST controller for timetable import information.
  * Implements the OpenAPI-generated interface.
  *
- * This controller reads from the shared importDatesMap that is populated
+ * This controller reads from the shared import date store and import history store that are populated
  * by the Kafka consumer route (ImportDateMapUpdater).
  */
 @RestController
@@ -40,41 +62,216 @@ public class TimetableImportInfoController implements TimetableImportInfoApi {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TimetableImportInfoController.class);
 
-    private final Map<String, String> importDates;
+    private static final List<MediaType> IMPORT_DATES_MEDIA_TYPES = List.of(MediaType.APPLICATION_JSON, VersionedImportDatesHttpMessageConverter.APPLICATION_AVRO);
 
-    public TimetableImportInfoController(@Qualifier("importDatesMap") Map<String, String> importDates) {
-        this.importDates = importDates;
+    private final ImportDateStore importDateStore;
+    private final ImportHistoryStore importHistoryStore;
+    private final HttpServletRequest request;
+    private final ContentNegotiationManager contentNegotiationManager;
+
+    public TimetableImportInfoController(ImportDateStore importDateStore, ImportHistoryStore importHistoryStore,
+                                         HttpServletRequest request, ContentNegotiationManager contentNegotiationManager) {
+        this.importDateStore = importDateStore;
+        this.importHistoryStore = importHistoryStore;
+        this.request = request;
+        this.contentNegotiationManager = contentNegotiationManager;
     }
 
     @Override
     public ResponseEntity<Map<String, String>> getAllImportDates() {
         LOGGER.info("Received request to get all import dates");
 
-        if (importDates.isEmpty()) {
+        if (importDateStore.isEmpty()) {
             LOGGER.warn("No import dates available");
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         }
 
+        MediaType mediaType = negotiateMediaType();
+        if (mediaType == null) {
+            LOGGER.warn("No acceptable representation of the import dates for '{}'", request.getHeader(HttpHeaders.ACCEPT));
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+
+        // the representation, JSON by default or Avro on request, plain or gzip-compressed, was encoded when the
+        // snapshot was published and is written as is by VersionedImportDatesHttpMessageConverter.
+        // Each representation has its own strong ETag: Spring answers a request whose If-None-Match header matches
+        // it with 304 Not Modified.
+        VersionedImportDates importDates = importDateStore.getSnapshot();
+        boolean gzip = acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        VersionedImportDates.Representation representation =
+            importDates.representation(VersionedImportDatesHttpMessageConverter.format(mediaType), gzip);
         LOGGER.info("Returning {} import dates", importDates.size());
-        return ResponseEntity.ok()
-            .contentType(org.springframework.http.MediaType.APPLICATION_JSON)
-            .body(importDates);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(mediaType)
+            .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+            .eTag(representation.eTag());
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, VersionedImportDatesHttpMessageConverter.GZIP);
+        }
+        return response.body(importDates);
+    }
+
+    /**
+     * Return the media type of the import dates preferred by the client, JSON or Avro, or null if it accepts neither.
+     * Media types of equal quality are preferred in the order of the Accept header.
+     */
+    private MediaType negotiateMediaType() {
+        List<MediaType> acceptedMediaTypes;
+        try {
+            acceptedMediaTypes = new ArrayList<>(contentNegotiationManager.resolveMediaTypes(new ServletWebRequest(request)));
+        } catch (HttpMediaTypeNotAcceptableException e) {
+            return null;
+        }
+        acceptedMediaTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType acceptedMediaType : acceptedMediaTypes) {
+            if (acceptedMediaType.getQualityValue() == 0) {
+                break;
+            }
+            for (MediaType mediaType : IMPORT_DATES_MEDIA_TYPES) {
+                if (acceptedMediaType.isCompatibleWith(mediaType)) {
+                    return mediaType;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if the Accept-Encoding header accepts gzip with a non-zero quality value.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] codingParameters = coding.split(";");
+            if (VersionedImportDatesHttpMessageConverter.GZIP.equalsIgnoreCase(codingParameters[0].trim())) {
+                for (int i = 1; i < codingParameters.length; i++) {
+                    String parameter = codingParameters[i].trim();
+                    if (parameter.startsWith("q=") && isZeroQuality(parameter.substring(2))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String quality) {
+        try {
+            return Double.parseDouble(quality) == 0;
+        } catch (NumberFormatException e) {
+            return true;
+        }
     }
 
     @Override
     public ResponseEntity<String> getImportDateByCodespace(String codespace) {
         LOGGER.info("Received request to get import date for codespace '{}'", codespace);
 
-        String importDate = importDates.get(codespace.toLowerCase());
+        String importDate = importDateStore.getImportDate(codespace);
 
         if (importDate != null) {
             LOGGER.info("Found import date for codespace '{}': {}", codespace, importDate);
             return ResponseEntity.ok()
-                .contentType(org.springframework.http.MediaType.TEXT_PLAIN)
+                .contentType(MediaType.TEXT_PLAIN)
                 .body(importDate);
         } else {
             LOGGER.warn("Codespace '{}' not found", codespace);
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public ResponseEntity<List<ImportHistoryItem>> getImportHistoryByCodespace(String codespace) {
+        LOGGER.info("Received request to get the import history for codespace '{}'", codespace);
+
+        List<ImportHistoryEntry> importHistory = importHistoryStore.getHistory(codespace);
+        if (importHistory == null) {
+            LOGGER.warn("Codespace '{}' not found", codespace);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        }
+
+        List<ImportHistoryItem> importHistoryItems = new ArrayList<>(importHistory.size());
+        for (ImportHistoryEntry entry : importHistory) {
+            importHistoryItems.add(new ImportHistoryItem().importDate(entry.importDate()).importKey(entry.importKey()));
+        }
+        LOGGER.info("Returning {} imports for codespace '{}'", importHistoryItems.size(), codespace);
+        return ResponseEntity.ok(importHistoryItems);
+    }
+
+    @Override
+    public ResponseEntity<ImportDatesByCodespaces> getImportDatesByCodespaces(List<String> codespaces) {
+        LOGGER.info("Received request to get import dates for codespaces {}", codespaces);
+
+        Map<String, String> importDates = new LinkedHashMap<>();
+        List<String> unknownCodespaces = new ArrayList<>();
+        for (String codespace : codespaces) {
+            String trimmedCodespace = codespace.trim();
+            if (trimmedCodespace.isEmpty() || importDates.containsKey(trimmedCodespace) || unknownCodespaces.contains(trimmedCodespace)) {
+                continue;
+            }
+            String importDate = importDateStore.getImportDate(trimmedCodespace);
+            if (importDate != null) {
+                importDates.put(trimmedCodespace, importDate);
+            } else {
+                unknownCodespaces.add(trimmedCodespace);
+            }
+        }
+
+        LOGGER.info("Returning {} import dates, {} unknown codespaces", importDates.size(), unknownCodespaces.size());
+        return ResponseEntity.ok(new ImportDatesByCodespaces()
+            .importDates(importDates)
+            .unknownCodespaces(unknownCodespaces));
+    }
+
+    @Override
+    public ResponseEntity<List<CodespaceImportDate>> getImportDatesAfter(String after, Integer limit) {
+        LOGGER.info("Received request to get the codespaces imported after '{}', limit {}", after, limit);
+
+        LocalDateTime afterDateTime;
+        try {
+            afterDateTime = LocalDateTime.parse(after);
+        } catch (DateTimeParseException e) {
+            LOGGER.warn("Invalid time '{}'", after);
+            return ResponseEntity.badRequest().build();
+        }
+        if (limit != null && limit <= 0) {
+            LOGGER.warn("Invalid limit {}", limit);
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<CodespaceImportDate> importDates = new ArrayList<>();
+        importDateStore.getImportDatesAfter(afterDateTime, limit == null ? Integer.MAX_VALUE : limit)
+            .forEach((codespace, importDate) -> importDates.add(new CodespaceImportDate().codespace(codespace).importDate(importDate)));
+        LOGGER.info("Returning {} codespaces imported after '{}'", importDates.size(), after);
+        return ResponseEntity.ok(importDates);
+    }
+
+    @Override
+    public ResponseEntity<ImportDateChanges> getImportDateChanges(String since) {
+        LOGGER.info("Received request to get import date changes since version '{}'", since);
+
+        ImportDateDelta delta = since == null ? null : importDateStore.getChangesSince(since);
+        if (delta == null) {
+            VersionedImportDates importDates = importDateStore.getSnapshot();
+            LOGGER.info("Changes since version '{}' not available, returning {} import dates", since, importDates.size());
+            return ResponseEntity.ok(new ImportDateChanges()
+                .version(importDates.position().toString())
+                .full(true)
+                .importDates(importDates));
+        }
+
+        // the changes are in the order they were applied: the last change of a codespace wins
+        Map<String, String> changedImportDates = new HashMap<>();
+        for (ImportDateChange change : delta.changes()) {
+            changedImportDates.put(change.codespace(), change.importDate());
+        }
+        LOGGER.info("Returning {} import date changes since version '{}'", changedImportDates.size(), since);
+        return ResponseEntity.ok(new ImportDateChanges()
+            .version(delta.position().toString())
+            .full(false)
+            .importDates(changedImportDates));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.rest;
+
+import no.entur.nisaba.avro.ImportDates;
+import no.entur.nisaba.importdate.VersionedImportDates;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Write a snapshot of the import dates as JSON, or as the binary encoding of the {@link ImportDates} Avro record.
+ * The media type is selected by the controller, which sets the Content-Type header, and is JSON otherwise, for
+ * instance in server-sent events. The body is gzip-compressed when the controller sets the Content-Encoding header to
+ * gzip. The converter writes the representation encoded when the snapshot was published, it does not serialize
+ * anything itself.
+ */
+public class VersionedImportDatesHttpMessageConverter extends AbstractHttpMessageConverter<VersionedImportDates> {
+
+    public static final String APPLICATION_AVRO_VALUE = "application/avro";
+    public static final MediaType APPLICATION_AVRO = MediaType.valueOf(APPLICATION_AVRO_VALUE);
+
+    public static final String GZIP = "gzip";
+
+    public VersionedImportDatesHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON, APPLICATION_AVRO);
+    }
+
+    /**
+     * Return the format of the import dates written in the given media type.
+     */
+    public static VersionedImportDates.Format format(MediaType contentType) {
+        return contentType != null && APPLICATION_AVRO.includes(contentType) ? VersionedImportDates.Format.AVRO : VersionedImportDates.Format.JSON;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return VersionedImportDates.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected VersionedImportDates readInternal(Class<? extends VersionedImportDates> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Reading import dates is not supported", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(VersionedImportDates importDates, MediaType contentType) {
+        // the length depends on the content encoding, it is set when the body is written
+        return null;
+    }
+
+    @Override
+    protected void writeInternal(VersionedImportDates importDates, HttpOutputMessage outputMessage) throws IOException {
+        HttpHeaders headers = outputMessage.getHeaders();
+        boolean gzip = GZIP.equals(headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        byte[] body = importDates.representation(format(headers.getContentType()), gzip).body();
+        headers.setContentLength(body.length);
+        outputMessage.getBody().write(body);
+    }
+}
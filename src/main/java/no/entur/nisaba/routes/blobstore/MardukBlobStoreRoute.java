@@ -42,5 +42,12 @@ public class MardukBlobStoreRoute extends BaseRouteBuilder {
                 .to(logDebugShowAll())
                 .log(LoggingLevel.DEBUG, correlation() + "Returning from fetching file ${header." + FILE_HANDLE + "} from Marduk bucket.")
                 .routeId("blobstore-marduk-download");
+
+        from("direct:getMardukBlobFingerprint")
+                .to(logDebugShowAll())
+                .bean(mardukBlobStoreService, "getBlobFingerprint")
+                .to(logDebugShowAll())
+                .log(LoggingLevel.DEBUG, correlation() + "Returning from fetching fingerprint of file ${header." + FILE_HANDLE + "} from Marduk bucket: ${body}.")
+                .routeId("blobstore-marduk-fingerprint");
     }
 }
@@ -45,6 +45,13 @@ public class NisabaExchangeBlobStoreRoute extends BaseRouteBuilder {
                 .log(LoggingLevel.DEBUG, correlation() + "Returning from fetching file ${header." + FILE_HANDLE + "} from Nisaba Exchange bucket.")
                 .routeId("blobstore-nisaba-exchange-download");
 
+        from("direct:findNisabaExchangeImportedDatasetKey")
+                .to(logDebugShowAll())
+                .bean(nisabaExchangeBlobStoreService, "findImportedDatasetKey")
+                .to(logDebugShowAll())
+                .log(LoggingLevel.DEBUG, correlation() + "Returning from looking up imported dataset key in Nisaba Exchange bucket: ${body}.")
+                .routeId("blobstore-nisaba-exchange-find-imported-dataset-key");
+
         from("direct:copyBlobToAnotherBucket")
                 .to(logDebugShowAll())
                 .bean(nisabaExchangeBlobStoreService, "copyBlobToAnotherBucket")
@@ -16,28 +16,55 @@
 
 package no.entur.nisaba.routes.netex.notification;
 
-import no.entur.nisaba.avro.NetexImportEvent;
+import no.entur.nisaba.importdate.ImportDateSnapshotRepository;
+import no.entur.nisaba.importdate.ImportDateStore;
+import no.entur.nisaba.importdate.ImportDateUpdate;
+import no.entur.nisaba.importdate.ImportEventPosition;
+import no.entur.nisaba.importdate.ImportHistoryStore;
 import no.entur.nisaba.routes.BaseRouteBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.apache.camel.component.kafka.KafkaConstants;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
- * Camel route that consumes Kafka events and updates the in-memory import dates map.
+ * Camel route that consumes Kafka events and updates the in-memory import date store and import history.
+ * Only the codespace, the import date and the import key are deserialized from the events, using the NetexImportDate projection.
  * The REST API is now handled by TimetableImportInfoController.
  */
 @Component
 public class ImportDateMapUpdater extends BaseRouteBuilder {
 
-    private final Map<String, String> importDates;
+    private static final String CODESPACE_FIELD = "codespace";
+    private static final String IMPORT_DATE_TIME_FIELD = "importDateTime";
+    private static final String IMPORT_KEY_FIELD = "importKey";
 
-    public ImportDateMapUpdater(@Qualifier("importDatesMap") Map<String, String> importDates) {
-        this.importDates = importDates;
+    private final ImportDateStore importDateStore;
+    private final ImportHistoryStore importHistoryStore;
+    private final ImportDateSnapshotRepository importDateSnapshotRepository;
+    private final String eventTopicProperty;
+    private final boolean batchMode;
+
+    public ImportDateMapUpdater(ImportDateStore importDateStore,
+                                ImportHistoryStore importHistoryStore,
+                                ImportDateSnapshotRepository importDateSnapshotRepository,
+                                @Value("${nisaba.import.date.consume.latest.topic:false}") boolean consumeLatestEventTopic,
+                                @Value("${nisaba.import.date.batch.enabled:false}") boolean batchMode) {
+        this.importDateStore = importDateStore;
+        this.importHistoryStore = importHistoryStore;
+        this.importDateSnapshotRepository = importDateSnapshotRepository;
+        // the log-compacted topic contains only the latest event per codespace and is much faster to read from the beginning
+        this.eventTopicProperty = consumeLatestEventTopic ? "nisaba.kafka.topic.latest" : "nisaba.kafka.topic.event";
+        this.batchMode = batchMode;
     }
 
     @Override
@@ -45,31 +72,117 @@ public class ImportDateMapUpdater extends BaseRouteBuilder {
         super.configure();
 
         // Kafka consumer route - consumes NeTEx import events
-        from("kafka:{{nisaba.kafka.topic.event}}" +
+        // When the snapshot is enabled, the topic is consumed from the offsets restored from the snapshot,
+        // otherwise it is consumed from the beginning.
+        String kafkaEndpoint = "kafka:{{" + eventTopicProperty + "}}" +
              "?clientId=nisaba-event-reader" +
              "&headerFilterStrategy=#nisabaKafkaHeaderFilterStrategy" +
-             "&valueDeserializer=io.confluent.kafka.serializers.KafkaAvroDeserializer" +
+             "&valueDeserializer=no.entur.nisaba.importdate.NetexImportDateDeserializer" +
              "&specificAvroReader=true" +
-             "&seekTo=beginning" +
+             (importDateSnapshotRepository.isEnabled() ? "" : "&seekTo=beginning") +
              "&autoOffsetReset=earliest" +
-             "&offsetRepository=#nisabaEventReaderOffsetRepo")
-            .log(LoggingLevel.INFO, correlation() +
-                "Received notification event from ${properties:nisaba.kafka.topic.event}")
-            .to("direct:updateImportDateMap")
-            .routeId("from-kafka-topic-event");
+             "&offsetRepository=#nisabaEventReaderOffsetRepo";
+
+        if (batchMode) {
+            // Batch mode - the events returned by a Kafka poll are applied to the store as a single update
+            from(kafkaEndpoint +
+                 "&batching=true" +
+                 "&maxPollRecords={{nisaba.import.date.batch.max.records:500}}" +
+                 "&pollTimeoutMs={{nisaba.import.date.batch.poll.timeout:1000}}")
+                .to("direct:updateImportDateMapBatch")
+                .routeId("from-kafka-topic-event");
+        } else {
+            from(kafkaEndpoint)
+                .log(LoggingLevel.INFO, correlation() +
+                    "Received notification event from ${properties:" + eventTopicProperty + "}")
+                .to("direct:updateImportDateMap")
+                .routeId("from-kafka-topic-event");
+        }
 
-        // Map update route - processes the event and updates the shared map
+        // Store update route - processes the event and updates the shared import date store and import history
+        // The event is either a full NetexImportEvent or its NetexImportDate projection.
+        // The import is recorded in the history before the import date store, see ImportDateSnapshotRepository.
         from("direct:updateImportDateMap")
             .process(exchange -> {
-                NetexImportEvent netexImportEvent = exchange.getIn().getBody(NetexImportEvent.class);
-                String importDate = netexImportEvent.getImportDateTime().toString();
-                LocalDateTime parsedDateTime = LocalDateTime.parse(importDate);
-                String truncatedImportDate = parsedDateTime
-                    .truncatedTo(ChronoUnit.SECONDS)
-                    .format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                importDates.put(netexImportEvent.getCodespace().toString(), truncatedImportDate);
-                log.debug("Registered import dates: {}", importDates);
+                GenericRecord netexImportEvent = exchange.getIn().getBody(GenericRecord.class);
+                importHistoryStore.record(codespace(netexImportEvent), importDateTime(netexImportEvent), importKey(netexImportEvent));
+                ImportDateUpdate update = importDateUpdate(exchange, netexImportEvent);
+                importDateStore.put(update.codespace(), update.importDateTime(), update.partition(), update.offset());
+                log.debug("Registered import date for codespace {}", codespace(netexImportEvent));
             })
             .routeId("update-import-date-map");
+
+        // Batch store update route - keeps only the last event per codespace in the batch and updates the shared store
+        from("direct:updateImportDateMapBatch")
+            .process(this::updateImportDateMapBatch)
+            .routeId("update-import-date-map-batch");
+
+        if (importDateSnapshotRepository.isEnabled()) {
+            from("timer:importDateSnapshot?period={{nisaba.import.date.snapshot.interval:60000}}")
+                .bean(importDateSnapshotRepository, "writeSnapshot")
+                .routeId("import-date-snapshot");
+        }
+    }
+
+    /**
+     * Apply a batch of events to the import date store.
+     * The batch is a list of Kafka exchanges, or a list of events. Events for the same codespace are in the same
+     * partition, in publication order: the last event for a codespace in the batch is the most recent one.
+     * Only the last event per codespace is applied, so that a burst of events for one codespace records a single change.
+     * The store still moves to the last offset of the batch in each partition.
+     */
+    private void updateImportDateMapBatch(Exchange exchange) {
+        List<?> batch = exchange.getIn().getBody(List.class);
+        // ordered by last occurrence, which keeps the updates in offset order within each partition
+        Map<String, ImportDateUpdate> lastUpdates = new LinkedHashMap<>();
+        ImportEventPosition position = ImportEventPosition.EMPTY;
+        for (Object element : batch) {
+            ImportDateUpdate update;
+            GenericRecord netexImportEvent;
+            if (element instanceof Exchange eventExchange) {
+                netexImportEvent = eventExchange.getIn().getBody(GenericRecord.class);
+                update = importDateUpdate(eventExchange, netexImportEvent);
+            } else {
+                netexImportEvent = (GenericRecord) element;
+                update = importDateUpdate(exchange, netexImportEvent);
+            }
+            String codespace = update.codespace().toLowerCase(Locale.ROOT);
+            lastUpdates.remove(codespace);
+            lastUpdates.put(codespace, update);
+            if (update.partition() != ImportDateStore.LOCAL_PARTITION && update.offset() > position.offset(update.partition())) {
+                position = position.with(update.partition(), update.offset());
+            }
+            // all the imports of the batch are recorded in the history, in publication order
+            importHistoryStore.record(codespace(netexImportEvent), importDateTime(netexImportEvent), importKey(netexImportEvent));
+        }
+        // the batch is applied atomically: the import dates and the time-ordered index are updated together
+        importDateStore.putAll(new ArrayList<>(lastUpdates.values()), position);
+        log.info("Received a batch of {} notification events for {} codespaces", batch.size(), lastUpdates.size());
+    }
+
+    /**
+     * Return the import date read from the event, at the position of the event in the topic.
+     * Events that do not come from the Kafka consumer have no position.
+     */
+    private static ImportDateUpdate importDateUpdate(Exchange exchange, GenericRecord netexImportEvent) {
+        Integer partition = exchange.getIn().getHeader(KafkaConstants.PARTITION, Integer.class);
+        Long offset = exchange.getIn().getHeader(KafkaConstants.OFFSET, Long.class);
+        if (partition == null || offset == null) {
+            return new ImportDateUpdate(codespace(netexImportEvent), importDateTime(netexImportEvent), ImportDateStore.LOCAL_PARTITION, 0);
+        }
+        return new ImportDateUpdate(codespace(netexImportEvent), importDateTime(netexImportEvent), partition, offset);
+    }
+
+    private static String codespace(GenericRecord netexImportEvent) {
+        return netexImportEvent.get(CODESPACE_FIELD).toString();
+    }
+
+    private static LocalDateTime importDateTime(GenericRecord netexImportEvent) {
+        return LocalDateTime.parse((CharSequence) netexImportEvent.get(IMPORT_DATE_TIME_FIELD));
+    }
+
+    private static String importKey(GenericRecord netexImportEvent) {
+        Object importKey = netexImportEvent.get(IMPORT_KEY_FIELD);
+        return importKey == null ? "" : importKey.toString();
     }
 }
\ No newline at end of file
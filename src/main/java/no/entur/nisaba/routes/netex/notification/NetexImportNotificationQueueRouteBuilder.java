@@ -17,33 +17,35 @@
 package no.entur.nisaba.routes.netex.notification;
 
 import no.entur.nisaba.Constants;
+import no.entur.nisaba.event.ImportWatermarkRepository;
 import no.entur.nisaba.event.NetexImportEventKeyFactory;
+import no.entur.nisaba.netex.DatasetCreationTimeCache;
+import no.entur.nisaba.netex.NetexArchiveScanner;
 import no.entur.nisaba.routes.BaseRouteBuilder;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
-import org.apache.camel.builder.FlexibleAggregationStrategy;
 import org.apache.camel.component.kafka.KafkaConstants;
-import org.apache.camel.dataformat.zipfile.ZipSplitter;
-import org.apache.camel.support.builder.PredicateBuilder;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.spi.StateRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.TreeSet;
 
 import static no.entur.nisaba.Constants.BLOBSTORE_PATH_OUTBOUND;
 import static no.entur.nisaba.Constants.DATASET_ALL_CREATION_TIMES;
+import static no.entur.nisaba.Constants.DATASET_BLOB_FINGERPRINT;
 import static no.entur.nisaba.Constants.DATASET_CHOUETTE_IMPORT_KEY;
 import static no.entur.nisaba.Constants.DATASET_CODESPACE;
 import static no.entur.nisaba.Constants.DATASET_IMPORT_KEY;
 import static no.entur.nisaba.Constants.DATASET_LATEST_CREATION_TIME;
 import static no.entur.nisaba.Constants.DATASET_PUBLISHED_FILE_NAME;
 import static no.entur.nisaba.Constants.FILE_HANDLE;
-import static no.entur.nisaba.Constants.XML_NAMESPACE_NETEX;
 
 /**
  * Receive a notification when a new NeTEx export is available in the blob store and send an event in a Kafka topic
@@ -52,17 +54,41 @@ import static no.entur.nisaba.Constants.XML_NAMESPACE_NETEX;
 @Component
 public class NetexImportNotificationQueueRouteBuilder extends BaseRouteBuilder {
 
-    static final LocalDateTime EPOCH = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC);
+    static final LocalDateTime EPOCH = NetexArchiveScanner.EPOCH;
+
+    /**
+     * Deduplication mode where a dataset is new if it was created after the last dataset published for the same codespace.
+     * In the default mode, a dataset is new if its import key is not found in the idempotent repository.
+     */
+    static final String DEDUP_MODE_WATERMARK = "watermark";
 
     private static final String EXPORT_FILE_NAME = "netex/rb_${body}-" + Constants.CURRENT_AGGREGATED_NETEX_FILENAME;
 
     private final String privateBucket;
     private final Set<String> whiteListedCodespaces;
+    private final NetexArchiveScanner netexArchiveScanner;
+    private final StateRepository<String, String> netexExportFingerprintRepo;
+    private final DatasetCreationTimeCache datasetCreationTimeCache;
+    private final String dedupMode;
+    private final ObjectProvider<ImportWatermarkRepository> importWatermarkRepository;
+    private final boolean publishLatestEvent;
 
     public NetexImportNotificationQueueRouteBuilder(@Value("${nisaba.netex.publication.internal.whitelist:}") String[] whiteListedCodespaces,
-                                                    @Value("${nisaba.netex.publication.internal.bucket:}") String privateBucket) {
+                                                    @Value("${nisaba.netex.publication.internal.bucket:}") String privateBucket,
+                                                    NetexArchiveScanner netexArchiveScanner,
+                                                    @Qualifier("netexExportFingerprintRepo") StateRepository<String, String> netexExportFingerprintRepo,
+                                                    DatasetCreationTimeCache datasetCreationTimeCache,
+                                                    @Value("${nisaba.dedup.mode:idempotent-repository}") String dedupMode,
+                                                    ObjectProvider<ImportWatermarkRepository> importWatermarkRepository,
+                                                    @Value("${nisaba.kafka.topic.latest.enabled:false}") boolean publishLatestEvent) {
         this.whiteListedCodespaces = new HashSet<>(Arrays.asList(whiteListedCodespaces));
         this.privateBucket = privateBucket;
+        this.netexArchiveScanner = netexArchiveScanner;
+        this.netexExportFingerprintRepo = netexExportFingerprintRepo;
+        this.datasetCreationTimeCache = datasetCreationTimeCache;
+        this.dedupMode = dedupMode;
+        this.importWatermarkRepository = importWatermarkRepository;
+        this.publishLatestEvent = publishLatestEvent;
     }
 
     @Override
@@ -71,11 +97,23 @@ public class NetexImportNotificationQueueRouteBuilder extends BaseRouteBuilder {
 
 
         from("master:lock-on-netex-export-notification-queue-route:google-pubsub:{{marduk.pubsub.project.id}}:NetexExportNotificationQueue")
-
+                // register the fingerprint of the export file once it has been successfully processed
+                .onCompletion().onCompleteOnly()
+                .process(this::registerProcessedNetexExport)
+                //end onCompletion
+                .end()
                 .process(this::setCorrelationIdIfMissing)
                 .setHeader(DATASET_CODESPACE, bodyAs(String.class))
                 .log(LoggingLevel.INFO, correlation() + "Received NeTEx export notification")
                 .setHeader(DATASET_PUBLISHED_FILE_NAME, simple(BLOBSTORE_PATH_OUTBOUND + EXPORT_FILE_NAME))
+                .to("direct:retrieveNetexDatasetFingerprint")
+                .filter(this::isProcessedNetexExport)
+                .log(LoggingLevel.INFO, correlation() + "The NeTEx export file has not changed since it was last processed. Skipping")
+                .stop()
+                //end filter
+                .end()
+                .to("direct:getCachedDatasetCreationTime")
+                .filter(header(DATASET_ALL_CREATION_TIMES).isNull())
                 .to("direct:downloadNetexDataset")
                 .filter(body().isNull())
                 .log(LoggingLevel.ERROR, correlation() + "NeTEx export file not found")
@@ -84,10 +122,28 @@ public class NetexImportNotificationQueueRouteBuilder extends BaseRouteBuilder {
                 .end()
                 .log(LoggingLevel.INFO, correlation() + "NeTEx export file downloaded")
                 .to("direct:retrieveDatasetCreationTime")
+                .bean(datasetCreationTimeCache, "put")
+                //end filter
+                .end()
                 .setHeader(DATASET_IMPORT_KEY, method(NetexImportEventKeyFactory.class, "createNetexImportEventKey(${header." + DATASET_CODESPACE + "}, ${header." + DATASET_LATEST_CREATION_TIME + "})"))
                 .to("direct:notifyConsumersIfNew")
                 .routeId("netex-export-notification-queue");
 
+        from("direct:retrieveNetexDatasetFingerprint")
+                .setHeader(FILE_HANDLE, header(DATASET_PUBLISHED_FILE_NAME))
+                .to("direct:getMardukBlobFingerprint")
+                .setHeader(DATASET_BLOB_FINGERPRINT, body())
+                .log(LoggingLevel.DEBUG, correlation() + "NeTEx export file fingerprint: ${header." + DATASET_BLOB_FINGERPRINT + "}")
+                .routeId("retrieve-netex-dataset-fingerprint");
+
+        // Reuse the creation times retrieved from a previous processing of the same export file, if any.
+        from("direct:getCachedDatasetCreationTime")
+                .setHeader(DATASET_ALL_CREATION_TIMES, method(datasetCreationTimeCache, "get"))
+                .filter(header(DATASET_ALL_CREATION_TIMES).isNotNull())
+                .setHeader(DATASET_LATEST_CREATION_TIME, simple("${header." + DATASET_ALL_CREATION_TIMES + ".last}"))
+                .log(LoggingLevel.INFO, correlation() + "Found cached creation time for this NeTEx export file: ${header." + DATASET_LATEST_CREATION_TIME + "}")
+                .routeId("get-cached-dataset-creation-time");
+
         from("direct:downloadNetexDataset")
                 .streamCache("true")
                 .log(LoggingLevel.INFO, correlation() + "Downloading NeTEx dataset")
@@ -95,60 +151,66 @@ public class NetexImportNotificationQueueRouteBuilder extends BaseRouteBuilder {
                 .to("direct:getMardukBlob")
                 .routeId("download-netex-dataset");
 
-        // Iterate over every XML files in the NeTEx archive, parse the "created" attribute of the CompositeFrame,
+        // Scan every XML file in the NeTEx archive, parse the "created" attribute of the CompositeFrame,
         // convert it to a DateTime object and accumulate it in a SortedSet.
-        // At the end of the iteration, the last element in the SortedSet contains the most recent of the creation dates.
+        // The last element in the SortedSet contains the most recent of the creation dates.
+        // Each entry is inflated only until the CompositeFrame is found, within the limit of the maximum prefix size.
+        // In parallel mode, the entries are inflated and parsed concurrently on a bounded thread pool.
+        // Entries that have not changed since the previous export of the codespace are not parsed again.
         from("direct:retrieveDatasetCreationTime")
                 .log(LoggingLevel.INFO, correlation() + "Retrieving dataset creation time")
-                .split(new ZipSplitter()).aggregationStrategy(new FlexibleAggregationStrategy<LocalDateTime>()
-                        .storeInBody()
-                        .accumulateInCollection(TreeSet.class)
-                        .pick(body()))
-                .streaming()
-                .filter(header(Exchange.FILE_NAME).not().endsWith(".xml"))
-                .log(LoggingLevel.INFO, correlation() + "Ignoring non-XML file ${header." + Exchange.FILE_NAME + "}")
-                .stop()
-                .end()
-                .to("direct:parseCreatedAttribute")
-                .end()
+                .bean(netexArchiveScanner, "retrieveCreationTimes")
                 .setHeader(DATASET_ALL_CREATION_TIMES, body())
                 .setHeader(DATASET_LATEST_CREATION_TIME, simple("${body.last}"))
                 .log(LoggingLevel.INFO, correlation() + "The dataset was created on ${header." + DATASET_LATEST_CREATION_TIME + "}")
                 .routeId("retrieve-dataset-creation-time");
 
-        from("direct:parseCreatedAttribute")
-                .setBody(xpath("/netex:PublicationDelivery/netex:dataObjects/netex:CompositeFrame/@created", String.class, XML_NAMESPACE_NETEX))
-                .choice()
-                .when(PredicateBuilder.or(body().isNull(), body().isEqualTo("")))
-                .log(LoggingLevel.WARN, correlation() + "'created' attribute not found in file ${header." + Exchange.FILE_NAME + "}")
-                .setBody(constant(EPOCH))
-                .otherwise()
-                .bean(LocalDateTime.class, "parse(${body})")
-                .end()
-                .routeId("parse-created-attribute");
-
-        // Use an idempotent repository backed by a Kafka topic to identify duplicate import events.
-        // a dataset import is uniquely identified by the concatenation of its codespace and creation date.
-        from("direct:notifyConsumersIfNew")
-                .idempotentConsumer(header(DATASET_IMPORT_KEY)).idempotentRepository("netexImportEventIdempotentRepo").skipDuplicate(false)
-                .filter(exchangeProperty(Exchange.DUPLICATE_MESSAGE).isEqualTo(true))
-                .log(LoggingLevel.INFO, correlation() + "An event has already been sent for this dataset. Skipping")
-                .stop()
-                .end()
-                .log(LoggingLevel.INFO, correlation() + "This is a new dataset. Notifying consumers")
-                .to("direct:notifyConsumers")
-                .log(LoggingLevel.INFO, correlation() + "Dataset processing complete")
-                .end()
-                .routeId("notify-consumers-if-new");
+        // Identify duplicate import events, according to the deduplication mode.
+        if (DEDUP_MODE_WATERMARK.equals(dedupMode)) {
+            // A dataset is new if it was created after the last dataset published for the same codespace.
+            // The watermarks are stored in a log-compacted Kafka topic shared by all instances.
+            ImportWatermarkRepository importWatermarkRepository = this.importWatermarkRepository.getObject();
+            from("direct:notifyConsumersIfNew")
+                    .filter(method(importWatermarkRepository, "isAtOrBelowWatermark"))
+                    .log(LoggingLevel.INFO, correlation() + "An event has already been sent for this dataset or for a more recent dataset. Skipping")
+                    .stop()
+                    .end()
+                    .log(LoggingLevel.INFO, correlation() + "This is a new dataset. Notifying consumers")
+                    .to("direct:notifyConsumers")
+                    .bean(importWatermarkRepository, "advance")
+                    .log(LoggingLevel.INFO, correlation() + "Dataset processing complete")
+                    .routeId("notify-consumers-if-new");
+        } else {
+            // Use an idempotent repository backed by a Kafka topic.
+            // A dataset import is uniquely identified by the concatenation of its codespace and creation date.
+            from("direct:notifyConsumersIfNew")
+                    .idempotentConsumer(header(DATASET_IMPORT_KEY)).idempotentRepository("netexImportEventIdempotentRepo").skipDuplicate(false)
+                    .filter(exchangeProperty(Exchange.DUPLICATE_MESSAGE).isEqualTo(true))
+                    .log(LoggingLevel.INFO, correlation() + "An event has already been sent for this dataset. Skipping")
+                    .stop()
+                    .end()
+                    .log(LoggingLevel.INFO, correlation() + "This is a new dataset. Notifying consumers")
+                    .to("direct:notifyConsumers")
+                    .log(LoggingLevel.INFO, correlation() + "Dataset processing complete")
+                    .end()
+                    .routeId("notify-consumers-if-new");
+        }
 
 
-        from("direct:notifyConsumers")
+        RouteDefinition notifyConsumers = from("direct:notifyConsumers")
                 .log(LoggingLevel.INFO, correlation() + "Notifying Kafka topic ${properties:nisaba.kafka.topic.event}")
                 .to("direct:findChouetteImportKey")
                 .bean("netexImportEventFactory", "createNetexImportEvent")
                 .to("direct:copyDatasetToPrivateBucket")
                 .setHeader(KafkaConstants.KEY, header(DATASET_CODESPACE))
-                .to("kafka:{{nisaba.kafka.topic.event}}?clientId=nisaba-event&headerFilterStrategy=#nisabaKafkaHeaderFilterStrategy&valueSerializer=io.confluent.kafka.serializers.KafkaAvroSerializer").id("to-kafka-topic-event")
+                .to("kafka:{{nisaba.kafka.topic.event}}?clientId=nisaba-event&headerFilterStrategy=#nisabaKafkaHeaderFilterStrategy&valueSerializer=io.confluent.kafka.serializers.KafkaAvroSerializer").id("to-kafka-topic-event");
+        // Publish the event to the log-compacted topic that keeps only the latest event per codespace.
+        // The record key is the codespace.
+        if (publishLatestEvent) {
+            notifyConsumers
+                    .to("kafka:{{nisaba.kafka.topic.latest}}?clientId=nisaba-latest-event&headerFilterStrategy=#nisabaKafkaHeaderFilterStrategy&valueSerializer=io.confluent.kafka.serializers.KafkaAvroSerializer").id("to-kafka-topic-latest-event");
+        }
+        notifyConsumers
                 .removeHeader(KafkaConstants.KEY)
                 .log(LoggingLevel.INFO, correlation() + "Notified export of ${body.serviceJourneys} service journeys and ${body.commonFiles} common files")
                 .routeId("notify-consumers");
@@ -158,20 +220,10 @@ public class NetexImportNotificationQueueRouteBuilder extends BaseRouteBuilder {
         // The dataset that should be referenced as the original dataset in the Kafka event is the one created by chouette.
         // To identify it, we look up in the exchange bucket for a file whose name matches any of the creation dates found in the CompositeFrames.
         // only the file that corresponds to the dataset imported by chouette exists in that bucket.
+        // The lookup is performed against a single listing of the codespace folder in the exchange bucket.
         from("direct:findChouetteImportKey")
-                .split(header(DATASET_ALL_CREATION_TIMES)).aggregationStrategy(new FlexibleAggregationStrategy<String>()
-                        .storeInHeader(DATASET_CHOUETTE_IMPORT_KEY)
-                        .pick(header(DATASET_CHOUETTE_IMPORT_KEY)))
-                .bean(NetexImportEventKeyFactory.class, "createNetexImportEventKey(${header." + DATASET_CODESPACE + "}, ${body})")
+                .to("direct:findNisabaExchangeImportedDatasetKey")
                 .setHeader(DATASET_CHOUETTE_IMPORT_KEY, body())
-                .setHeader(FILE_HANDLE, simple("imported/${header." + DATASET_CODESPACE + "}/${body}.zip"))
-                .to("direct:getNisabaExchangeBlob")
-                .filter(body().isNull())
-                .removeHeader(DATASET_CHOUETTE_IMPORT_KEY)
-                //end filter
-                .end()
-                //end split
-                .end()
                 .filter(header(DATASET_CHOUETTE_IMPORT_KEY).isNull())
                 .log(LoggingLevel.WARN, correlation() + "Chouette import key not found")
                 .routeId("find-chouette-import-key");
@@ -188,6 +240,23 @@ public class NetexImportNotificationQueueRouteBuilder extends BaseRouteBuilder {
 
     }
 
+    /**
+     * Return true if the NeTEx export file has the same fingerprint as the last export file processed for this codespace.
+     */
+    private boolean isProcessedNetexExport(Exchange exchange) {
+        String fingerprint = exchange.getIn().getHeader(DATASET_BLOB_FINGERPRINT, String.class);
+        String codespace = exchange.getIn().getHeader(DATASET_CODESPACE, String.class);
+        return fingerprint != null && fingerprint.equals(netexExportFingerprintRepo.getState(codespace));
+    }
+
+    private void registerProcessedNetexExport(Exchange exchange) {
+        String fingerprint = exchange.getIn().getHeader(DATASET_BLOB_FINGERPRINT, String.class);
+        String codespace = exchange.getIn().getHeader(DATASET_CODESPACE, String.class);
+        if (fingerprint != null && codespace != null) {
+            netexExportFingerprintRepo.setState(codespace, fingerprint);
+        }
+    }
+
     private boolean isWhiteListedCodespace(String codespace) {
         return whiteListedCodespaces.contains(codespace);
     }
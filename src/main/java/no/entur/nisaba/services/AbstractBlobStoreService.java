@@ -17,17 +17,17 @@
 package no.entur.nisaba.services;
 
 import no.entur.nisaba.Constants;
+import no.entur.nisaba.blobstore.NisabaBlobStoreRepository;
 import org.apache.camel.Header;
-import org.rutebanken.helper.storage.repository.BlobStoreRepository;
 
 import java.io.InputStream;
 
 public abstract class AbstractBlobStoreService {
 
-    protected final BlobStoreRepository repository;
+    protected final NisabaBlobStoreRepository repository;
     private final String containerName;
 
-    protected AbstractBlobStoreService(String containerName, BlobStoreRepository repository) {
+    protected AbstractBlobStoreService(String containerName, NisabaBlobStoreRepository repository) {
         this.containerName = containerName;
         this.repository = repository;
         this.repository.setContainerName(containerName);
@@ -37,6 +37,13 @@ public abstract class AbstractBlobStoreService {
         return repository.getBlob(name);
     }
 
+    /**
+     * Return the fingerprint of a blob, using only its metadata. The blob content is not downloaded.
+     */
+    public String getBlobFingerprint(@Header(value = Constants.FILE_HANDLE) String name) {
+        return repository.getBlobFingerprint(name);
+    }
+
     public void copyBlobToAnotherBucket(@Header(value = Constants.FILE_HANDLE) String sourceName,
                                         @Header(value = Constants.TARGET_CONTAINER) String targetContainerName,
                                         @Header(value = Constants.TARGET_FILE_HANDLE) String targetName) {
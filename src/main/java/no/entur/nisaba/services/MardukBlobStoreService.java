@@ -16,7 +16,7 @@
 
 package no.entur.nisaba.services;
 
-import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+import no.entur.nisaba.blobstore.NisabaBlobStoreRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -26,7 +26,7 @@ import org.springframework.stereotype.Service;
 @Service
 public class MardukBlobStoreService extends AbstractBlobStoreService {
 
-    public MardukBlobStoreService(@Value("${blobstore.gcs.marduk.container.name}") String containerName, BlobStoreRepository repository) {
+    public MardukBlobStoreService(@Value("${blobstore.gcs.marduk.container.name}") String containerName, NisabaBlobStoreRepository repository) {
         super(containerName, repository);
     }
 }
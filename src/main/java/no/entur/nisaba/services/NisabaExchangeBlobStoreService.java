@@ -16,17 +16,98 @@
 
 package no.entur.nisaba.services;
 
-import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+import no.entur.nisaba.Constants;
+import no.entur.nisaba.blobstore.NisabaBlobStoreRepository;
+import no.entur.nisaba.event.NetexImportEventKeyFactory;
+import org.apache.camel.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Operations on blobs in the main Nisaba bucket.
  */
 @Service
 public class NisabaExchangeBlobStoreService extends AbstractBlobStoreService {
 
-    public NisabaExchangeBlobStoreService(@Value("${blobstore.gcs.nisaba.exchange.container.name}") String containerName, BlobStoreRepository repository) {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NisabaExchangeBlobStoreService.class);
+
+    private final Duration importedDatasetListingTimeToLive;
+    private final Map<String, ImportedDatasetListing> importedDatasetListings = new ConcurrentHashMap<>();
+
+    public NisabaExchangeBlobStoreService(@Value("${blobstore.gcs.nisaba.exchange.container.name}") String containerName,
+                                          NisabaBlobStoreRepository repository,
+                                          @Value("${nisaba.exchange.imported.listing.ttl:PT10M}") Duration importedDatasetListingTimeToLive) {
         super(containerName, repository);
+        this.importedDatasetListingTimeToLive = importedDatasetListingTimeToLive;
+    }
+
+    /**
+     * Find the import key of the original dataset imported in the exchange bucket under imported/{codespace}/{key}.zip
+     * among the keys built from the given creation times. If several keys match, the most recent one is returned.
+     * The content of the folder imported/{codespace}/ is listed once and cached per codespace.
+     * A cached listing is reused until it expires, or until it does not contain any of the candidate keys, in which case
+     * the folder is listed again to take into account datasets imported after the listing was cached.
+     *
+     * @return the import key of the original dataset, or null if there is none.
+     */
+    public String findImportedDatasetKey(@Header(value = Constants.DATASET_CODESPACE) String codespace,
+                                         @Header(value = Constants.DATASET_ALL_CREATION_TIMES) Collection<LocalDateTime> creationTimes) {
+        if (creationTimes == null || creationTimes.isEmpty()) {
+            return null;
+        }
+        ImportedDatasetListing listing = importedDatasetListings.get(codespace);
+        if (listing != null && !listing.isExpired(now())) {
+            String importKey = findImportKey(codespace, creationTimes, listing);
+            if (importKey != null) {
+                return importKey;
+            }
+        }
+        listing = listImportedDatasets(codespace);
+        return findImportKey(codespace, creationTimes, listing);
+    }
+
+    private ImportedDatasetListing listImportedDatasets(String codespace) {
+        Set<String> blobNames = repository.listBlobNames(importedDatasetFolder(codespace));
+        LOGGER.debug("Listed {} imported datasets for codespace {}", blobNames.size(), codespace);
+        ImportedDatasetListing listing = new ImportedDatasetListing(blobNames, now().plus(importedDatasetListingTimeToLive));
+        importedDatasetListings.put(codespace, listing);
+        return listing;
+    }
+
+    private static String findImportKey(String codespace, Collection<LocalDateTime> creationTimes, ImportedDatasetListing listing) {
+        return creationTimes.stream()
+                .sorted(Comparator.reverseOrder())
+                .map(creationTime -> NetexImportEventKeyFactory.createNetexImportEventKey(codespace, creationTime))
+                .filter(importKey -> listing.blobNames().contains(importedDatasetFolder(codespace) + importKey + ".zip"))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * The current time, used for expiring the cached listings. Overridden in tests.
+     */
+    Instant now() {
+        return Instant.now();
+    }
+
+    private static String importedDatasetFolder(String codespace) {
+        return "imported/" + codespace + "/";
+    }
+
+    private record ImportedDatasetListing(Set<String> blobNames, Instant expiry) {
+        boolean isExpired(Instant now) {
+            return now.isAfter(expiry);
+        }
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.benchmark;
+
+import no.entur.nisaba.config.VirtualThreadPoolFactory;
+import no.entur.nisaba.netex.CompositeFrameCreatedAttributeParser;
+import org.apache.camel.CamelContext;
+import org.apache.camel.CamelContextAware;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spi.ThreadPoolFactory;
+import org.apache.camel.support.DefaultThreadPoolFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Compare the Camel thread pools created by the {@link VirtualThreadPoolFactory} with the pools of platform threads
+ * created by the {@link DefaultThreadPoolFactory}, on the same Camel route.
+ * The route splits a batch of NeTEx documents in parallel, on a thread pool created by the thread pool factory. Each
+ * document sleeps to simulate a blocking read, parses the CompositeFrame creation time of a NeTEx document from the test archive,
+ * then sleeps to simulate a blocking write. Sleeping unmounts a virtual thread like blocking socket I/O does. Neither
+ * Kafka nor GCS is involved: the results do not measure the overhead of their clients.
+ * The stacks of virtual threads are stored in the heap, whereas the stacks of platform threads are reserved outside the
+ * heap (-Xss512k in production): the memory footprint is the heap growth plus the peak number of platform threads times
+ * the stack size.
+ * The benchmark is excluded from the build. Run it with:
+ * <pre>
+ * mvn test -Dtest=VirtualThreadsBenchmark -Dsurefire.excludedGroups= -Dbenchmark.tasks=10000 -Dbenchmark.pool.size=50
+ * </pre>
+ */
+@Tag("benchmark")
+class VirtualThreadsBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadsBenchmark.class);
+
+    private static final String BENCHMARK_THREAD_POOL = "VirtualThreadsBenchmark";
+    private static final String NETEX_ARCHIVE = "/no/entur/nisaba/netex/import/rb_avi-aggregated-netex.zip";
+
+    private final int tasks = Integer.getInteger("benchmark.tasks", 10_000);
+    private final int poolSize = Integer.getInteger("benchmark.pool.size", 50);
+    private final long readLatencyMs = Long.getLong("benchmark.read.latency.ms", 20);
+    private final long writeLatencyMs = Long.getLong("benchmark.write.latency.ms", 5);
+
+    @Test
+    void compareThreadPoolFactories() throws Exception {
+        List<byte[]> netexDocuments = readNetexDocuments();
+        LOGGER.info("Camel route with a pool of {} threads: {} tasks, read latency {} ms, write latency {} ms, {} NeTEx documents",
+                poolSize, tasks, readLatencyMs, writeLatencyMs, netexDocuments.size());
+
+        // warm up the XML parser, the JIT and Camel before measuring
+        run("warm-up", new DefaultThreadPoolFactory(), Math.min(tasks, 1000), 0, 0, netexDocuments);
+
+        Assertions.assertEquals(0, run("platform threads", new DefaultThreadPoolFactory(), tasks, readLatencyMs, writeLatencyMs, netexDocuments));
+        Assertions.assertEquals(0, run("virtual threads", new VirtualThreadPoolFactory(), tasks, readLatencyMs, writeLatencyMs, netexDocuments));
+    }
+
+    /**
+     * Send the tasks to the route of a new Camel context that uses the given thread pool factory.
+     *
+     * @return the number of failed tasks.
+     */
+    private long run(String name, ThreadPoolFactory threadPoolFactory, int tasks, long readLatencyMs, long writeLatencyMs,
+                     List<byte[]> netexDocuments) throws Exception {
+        List<byte[]> batch = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            batch.add(netexDocuments.get(i % netexDocuments.size()));
+        }
+        AtomicLong failures = new AtomicLong();
+        AtomicLong peakHeap = new AtomicLong();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+        try (CamelContext camelContext = new DefaultCamelContext()) {
+            CamelContextAware.trySetCamelContext(threadPoolFactory, camelContext);
+            camelContext.getExecutorServiceManager().setThreadPoolFactory(threadPoolFactory);
+            camelContext.getExecutorServiceManager().registerThreadPoolProfile(
+                    new ThreadPoolProfileBuilder(BENCHMARK_THREAD_POOL).poolSize(poolSize).maxPoolSize(poolSize).maxQueueSize(tasks).build());
+            camelContext.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() {
+                    from("direct:benchmark")
+                            .split(body()).parallelProcessing().executorService(BENCHMARK_THREAD_POOL)
+                            .process(exchange -> {
+                                try {
+                                    sleep(readLatencyMs);
+                                    byte[] netexDocument = exchange.getIn().getBody(byte[].class);
+                                    if (CompositeFrameCreatedAttributeParser.parseCreatedAttribute(new ByteArrayInputStream(netexDocument)) == null) {
+                                        failures.incrementAndGet();
+                                    }
+                                    sleep(writeLatencyMs);
+                                    peakHeap.accumulateAndGet(memoryMXBean.getHeapMemoryUsage().getUsed(), Math::max);
+                                } catch (Exception e) {
+                                    failures.incrementAndGet();
+                                }
+                            });
+                }
+            });
+            camelContext.start();
+
+            System.gc();
+            long heapBefore = memoryMXBean.getHeapMemoryUsage().getUsed();
+            threadMXBean.resetPeakThreadCount();
+            long start = System.nanoTime();
+            try (ProducerTemplate producerTemplate = camelContext.createProducerTemplate()) {
+                producerTemplate.sendBody("direct:benchmark", batch);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            LOGGER.info("{}: {} tasks/s, elapsed {} ms, peak platform threads {}, peak heap growth {} KiB, failures {}",
+                    name,
+                    Math.round(tasks / (elapsedNanos / 1e9)),
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    threadMXBean.getPeakThreadCount(),
+                    Math.max(0, peakHeap.get() - heapBefore) / 1024,
+                    failures.get());
+        }
+        return failures.get();
+    }
+
+    private static void sleep(long latencyMs) throws InterruptedException {
+        if (latencyMs > 0) {
+            Thread.sleep(latencyMs);
+        }
+    }
+
+    private static List<byte[]> readNetexDocuments() throws IOException {
+        List<byte[]> netexDocuments = new ArrayList<>();
+        try (InputStream archive = VirtualThreadsBenchmark.class.getResourceAsStream(NETEX_ARCHIVE);
+             ZipInputStream zipInputStream = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                if (entry.getName().endsWith(".xml")) {
+                    netexDocuments.add(zipInputStream.readAllBytes());
+                }
+            }
+        }
+        return netexDocuments;
+    }
+}
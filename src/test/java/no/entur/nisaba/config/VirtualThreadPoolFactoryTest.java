@@ -0,0 +1,66 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+
+package no.entur.nisaba.config;
+
+import no.entur.nisaba.NisabaRouteBuilderIntegrationTestBase;
+import no.entur.nisaba.TestApp;
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = TestApp.class,
+        properties = "spring.threads.virtual.enabled=true")
+class VirtualThreadPoolFactoryTest extends NisabaRouteBuilderIntegrationTestBase {
+
+    @Test
+    void testCamelThreadPoolsRunOnVirtualThreads() throws Exception {
+
+        context.start();
+
+        ExecutorServiceManager executorServiceManager = context.getExecutorServiceManager();
+        Assertions.assertInstanceOf(VirtualThreadPoolFactory.class, executorServiceManager.getThreadPoolFactory());
+
+        ExecutorService threadPool = executorServiceManager.newThreadPool(this, "VirtualThreadPool", 1, 1);
+        ExecutorService cachedThreadPool = executorServiceManager.newCachedThreadPool(this, "VirtualCachedThreadPool");
+        ScheduledExecutorService scheduledThreadPool = executorServiceManager.newScheduledThreadPool(this, "VirtualScheduledThreadPool", 1);
+        try {
+            Thread poolThread = threadPool.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+            Assertions.assertTrue(poolThread.isVirtual());
+            Assertions.assertTrue(poolThread.getName().startsWith("Camel ("), poolThread.getName());
+            Assertions.assertTrue(poolThread.getName().endsWith(" - VirtualThreadPool"), poolThread.getName());
+
+            Assertions.assertTrue(cachedThreadPool.submit(Thread::currentThread).get(10, TimeUnit.SECONDS).isVirtual());
+            Assertions.assertTrue(scheduledThreadPool.schedule(Thread::currentThread, 1, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS).isVirtual());
+        } finally {
+            executorServiceManager.shutdownNow(threadPool);
+            executorServiceManager.shutdownNow(cachedThreadPool);
+            executorServiceManager.shutdownNow(scheduledThreadPool);
+        }
+    }
+
+    @Test
+    void testVirtualThreadsDoNotLeakToTheJvm() {
+        Assertions.assertNull(System.getProperty("camel.threads.virtual.enabled"));
+    }
+
+}
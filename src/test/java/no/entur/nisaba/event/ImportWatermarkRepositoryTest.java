@@ -0,0 +1,62 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.event;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImportWatermarkRepositoryTest {
+
+    private static final LocalDateTime CREATION_TIME = LocalDateTime.parse("2021-04-13T09:09:45.409");
+
+    private KafkaWatermarkStateRepository watermarkRepo;
+
+    @AfterEach
+    void tearDown() {
+        if (watermarkRepo != null) {
+            watermarkRepo.stop();
+        }
+    }
+
+    @Test
+    void testAdvanceWatermark() {
+        watermarkRepo = KafkaWatermarkStateRepositoryTest.repository(KafkaWatermarkStateRepositoryTest.consumer(0, List.of()),
+                KafkaWatermarkStateRepositoryTest.producer(true), Duration.ofSeconds(10));
+        watermarkRepo.start();
+        ImportWatermarkRepository importWatermarkRepository = new ImportWatermarkRepository(watermarkRepo);
+
+        assertFalse(importWatermarkRepository.isAtOrBelowWatermark("avi", CREATION_TIME));
+        importWatermarkRepository.advance("avi", CREATION_TIME);
+
+        assertTrue(importWatermarkRepository.isAtOrBelowWatermark("avi", CREATION_TIME));
+        assertTrue(importWatermarkRepository.isAtOrBelowWatermark("avi", CREATION_TIME.minusDays(1)));
+        assertFalse(importWatermarkRepository.isAtOrBelowWatermark("avi", CREATION_TIME.plusNanos(1_000_000)));
+        assertFalse(importWatermarkRepository.isAtOrBelowWatermark("nsb", CREATION_TIME));
+
+        // the watermark is never moved backward
+        importWatermarkRepository.advance("avi", CREATION_TIME.minusDays(1));
+        assertEquals(String.valueOf(1618304985409L), watermarkRepo.getState("avi"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.event;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KafkaWatermarkStateRepositoryTest {
+
+    static final String TOPIC = "rutedata-dataset-import-watermark-dev";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private KafkaWatermarkStateRepository repository;
+
+    @AfterEach
+    void tearDown() {
+        if (repository != null) {
+            repository.stop();
+        }
+    }
+
+    @Test
+    void testReadWatermarksAtStartup() {
+        repository = repository(consumer(4, List.of(
+                record(0, "avi", "1000"),
+                record(1, "nsb", "5000"),
+                record(2, "avi", "2000"),
+                record(3, "nsb", "invalid"))), producer(true), Duration.ofSeconds(10));
+
+        repository.start();
+
+        assertEquals("2000", repository.getState("avi"));
+        assertEquals("5000", repository.getState("nsb"));
+        assertNull(repository.getState("goa"));
+    }
+
+    @Test
+    void testReplayTimeoutFailsStartup() {
+        // the end offset is never reached
+        repository = repository(consumer(5, List.of(record(0, "avi", "1000"))), producer(true), Duration.ofMillis(200));
+
+        assertThrows(RuntimeException.class, repository::start);
+        assertFalse(repository.isStarted());
+        repository = null;
+    }
+
+    @Test
+    void testSetStateIsPublishedToTopic() {
+        MockProducer<String, String> producer = producer(true);
+        repository = repository(consumer(0, List.of()), producer, Duration.ofSeconds(10));
+        repository.start();
+
+        repository.setState("avi", "1000");
+
+        assertEquals("1000", repository.getState("avi"));
+        assertEquals(List.of(new ProducerRecord<>(TOPIC, "avi", "1000")), producer.history());
+    }
+
+    @Test
+    void testSetStateIsNotAppliedWhenPublishFails() throws Exception {
+        MockProducer<String, String> producer = producer(false);
+        repository = repository(consumer(0, List.of()), producer, Duration.ofSeconds(10));
+        repository.start();
+
+        Thread failingBroker = new Thread(() -> {
+            while (!producer.errorNext(new KafkaException("Broker not available"))) {
+                Thread.onSpinWait();
+            }
+        });
+        failingBroker.start();
+
+        assertThrows(RuntimeCamelException.class, () -> repository.setState("avi", "1000"));
+        failingBroker.join();
+
+        assertNull(repository.getState("avi"));
+    }
+
+    @Test
+    void testWatermarksFromOtherInstancesAreAppliedAndNeverMoveBackward() throws Exception {
+        MockConsumer<String, String> consumer = consumer(0, List.of());
+        repository = repository(consumer, producer(true), Duration.ofSeconds(10));
+        repository.start();
+        repository.setState("avi", "2000");
+
+        // an older record of the local instance is read back after the local change, then a newer record from the master
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(0, "avi", "1000"));
+            consumer.addRecord(record(1, "nsb", "3000"));
+        });
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (repository.getState("nsb") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("3000", repository.getState("nsb"));
+        assertEquals("2000", repository.getState("avi"));
+    }
+
+    static KafkaWatermarkStateRepository repository(Consumer<String, String> consumer, Producer<String, String> producer, Duration startupReplayTimeout) {
+        return new KafkaWatermarkStateRepository(TOPIC, startupReplayTimeout, new Properties(), new Properties()) {
+            @Override
+            protected Consumer<String, String> createConsumer() {
+                return consumer;
+            }
+
+            @Override
+            protected Producer<String, String> createProducer() {
+                return producer;
+            }
+        };
+    }
+
+    /**
+     * A consumer on a single-partition topic that returns the given records on the first poll.
+     */
+    static MockConsumer<String, String> consumer(long endOffset, List<ConsumerRecord<String, String>> records) {
+        MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+        consumer.updateEndOffsets(Map.of(PARTITION, endOffset));
+        consumer.schedulePollTask(() -> records.forEach(consumer::addRecord));
+        return consumer;
+    }
+
+    static MockProducer<String, String> producer(boolean autoComplete) {
+        return new MockProducer<>(autoComplete, new StringSerializer(), new StringSerializer());
+    }
+
+    private static ConsumerRecord<String, String> record(long offset, String codespace, String watermark) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, codespace, watermark);
+    }
+}
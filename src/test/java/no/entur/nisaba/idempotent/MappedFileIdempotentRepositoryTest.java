@@ -0,0 +1,241 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.idempotent;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileIdempotentRepositoryTest {
+
+    private static final String TOPIC = "rutedata-dataset-import-event-idempotent-repo-dev";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    @TempDir
+    Path tempDir;
+
+    private MappedFileIdempotentRepository repository;
+
+    @AfterEach
+    void tearDown() {
+        if (repository != null) {
+            repository.stop();
+        }
+    }
+
+    @Test
+    void testReplayAtStartup() throws Exception {
+        MockConsumer<String, String> consumer = consumer(0, 4, List.of(
+                record(0, "avi_1", "add"),
+                record(1, "avi_2", "add"),
+                record(2, "avi_1", "remove"),
+                record(3, "avi_3", "unknown")));
+        repository = repository(consumer, producer(true), Duration.ofSeconds(10));
+
+        repository.start();
+
+        assertFalse(repository.contains("avi_1"));
+        assertTrue(repository.contains("avi_2"));
+        assertFalse(repository.contains("avi_3"));
+        assertEquals("4", readCheckpoint().getProperty("0"));
+    }
+
+    @Test
+    void testReplayFromCheckpointAfterRestart() throws Exception {
+        repository = repository(consumer(0, 2, List.of(record(0, "avi_1", "add"), record(1, "avi_2", "add"))), producer(true), Duration.ofSeconds(10));
+        repository.start();
+        repository.stop();
+
+        // the records before the checkpoint are not replayed again
+        repository = repository(consumer(0, 3, List.of(record(0, "avi_0", "add"), record(2, "avi_3", "add"))), producer(true), Duration.ofSeconds(10));
+        repository.start();
+
+        assertFalse(repository.contains("avi_0"));
+        assertTrue(repository.contains("avi_1"));
+        assertTrue(repository.contains("avi_2"));
+        assertTrue(repository.contains("avi_3"));
+        assertEquals("3", readCheckpoint().getProperty("0"));
+    }
+
+    @Test
+    void testReplayTimeoutFailsStartup() throws Exception {
+        // the end offset is never reached
+        repository = repository(consumer(0, 5, List.of(record(0, "avi_1", "add"))), producer(true), Duration.ofMillis(200));
+
+        RuntimeException exception = assertThrows(RuntimeException.class, repository::start);
+
+        assertNotNull(findCause(exception, IllegalStateException.class), exception.toString());
+        assertFalse(repository.isStarted());
+        repository = null;
+    }
+
+    @Test
+    void testAddIsPublishedToTopic() throws Exception {
+        MockProducer<String, String> producer = producer(true);
+        repository = repository(consumer(0, 0, List.of()), producer, Duration.ofSeconds(10));
+        repository.start();
+
+        assertTrue(repository.add("avi_1"));
+        assertFalse(repository.add("avi_1"));
+        assertTrue(repository.remove("avi_1"));
+
+        assertEquals(List.of(new ProducerRecord<>(TOPIC, "avi_1", "add"), new ProducerRecord<>(TOPIC, "avi_1", "remove")), producer.history());
+    }
+
+    @Test
+    void testAddIsRolledBackWhenPublishFails() throws Exception {
+        MockProducer<String, String> producer = producer(false);
+        repository = repository(consumer(0, 0, List.of()), producer, Duration.ofSeconds(10));
+        repository.start();
+
+        Thread failingBroker = new Thread(() -> {
+            while (!producer.errorNext(new KafkaException("Broker not available"))) {
+                Thread.onSpinWait();
+            }
+        });
+        failingBroker.start();
+
+        assertThrows(RuntimeCamelException.class, () -> repository.add("avi_1"));
+        failingBroker.join();
+
+        assertFalse(repository.contains("avi_1"));
+    }
+
+    @Test
+    void testChangesFromOtherInstancesAreApplied() throws Exception {
+        MockConsumer<String, String> consumer = consumer(0, 0, List.of());
+        repository = repository(consumer, producer(true), Duration.ofSeconds(10));
+        repository.start();
+
+        consumer.schedulePollTask(() -> consumer.addRecord(record(0, "avi_1", "add")));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!repository.contains("avi_1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(repository.contains("avi_1"));
+    }
+
+    @Test
+    void testStopWaitsForThePoller() throws Exception {
+        MockConsumer<String, String> consumer = consumer(0, 0, List.of());
+        repository = repository(consumer, producer(true), Duration.ofSeconds(10));
+        repository.start();
+
+        CountDownLatch pollStarted = new CountDownLatch(1);
+        CountDownLatch pollReleased = new CountDownLatch(1);
+        consumer.schedulePollTask(() -> {
+            pollStarted.countDown();
+            try {
+                pollReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(pollStarted.await(10, TimeUnit.SECONDS));
+
+        Thread stopper = new Thread(repository::stop);
+        stopper.start();
+        // the index is not closed while the poller is still running
+        stopper.join(300);
+        assertTrue(stopper.isAlive());
+
+        pollReleased.countDown();
+        stopper.join(10_000);
+        assertFalse(stopper.isAlive());
+        repository = null;
+    }
+
+    private MappedFileIdempotentRepository repository(Consumer<String, String> consumer, Producer<String, String> producer, Duration startupReplayTimeout) {
+        return new MappedFileIdempotentRepository(TOPIC, tempDir, 16, startupReplayTimeout, Duration.ZERO, new Properties(), new Properties()) {
+            @Override
+            Consumer<String, String> createConsumer() {
+                return consumer;
+            }
+
+            @Override
+            Producer<String, String> createProducer() {
+                return producer;
+            }
+        };
+    }
+
+    /**
+     * A consumer on a single-partition topic that returns the given records on the first poll.
+     */
+    private static MockConsumer<String, String> consumer(long beginningOffset, long endOffset, List<ConsumerRecord<String, String>> records) {
+        MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, beginningOffset));
+        consumer.updateEndOffsets(Map.of(PARTITION, endOffset));
+        consumer.schedulePollTask(() -> records.forEach(consumer::addRecord));
+        return consumer;
+    }
+
+    private static MockProducer<String, String> producer(boolean autoComplete) {
+        return new MockProducer<>(autoComplete, new StringSerializer(), new StringSerializer());
+    }
+
+    private static ConsumerRecord<String, String> record(long offset, String key, String action) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, key, action);
+    }
+
+    private Properties readCheckpoint() throws Exception {
+        Properties checkpoint = new Properties();
+        try (Reader reader = Files.newBufferedReader(tempDir.resolve("idempotent-repository.checkpoint"))) {
+            checkpoint.load(reader);
+        }
+        return checkpoint;
+    }
+
+    private static <T extends Throwable> T findCause(Throwable throwable, Class<T> causeType) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (causeType.isInstance(cause)) {
+                return causeType.cast(cause);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.idempotent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedHashIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAddRemoveContains() throws Exception {
+        try (MappedHashIndex index = MappedHashIndex.open(tempDir.resolve("index.idx"), 16)) {
+            assertTrue(index.isCreated());
+            assertTrue(index.add("avi_2021-04-13T09_09_45.409"));
+            assertFalse(index.add("avi_2021-04-13T09_09_45.409"));
+            assertTrue(index.contains("avi_2021-04-13T09_09_45.409"));
+            assertFalse(index.contains("avi_2021-04-14T09_09_45.409"));
+
+            assertTrue(index.remove("avi_2021-04-13T09_09_45.409"));
+            assertFalse(index.remove("avi_2021-04-13T09_09_45.409"));
+            assertFalse(index.contains("avi_2021-04-13T09_09_45.409"));
+            assertEquals(0, index.size());
+
+            // a removed key can be added again
+            assertTrue(index.add("avi_2021-04-13T09_09_45.409"));
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    void testAddRemoveContainsAcrossRebuild() throws Exception {
+        try (MappedHashIndex index = MappedHashIndex.open(tempDir.resolve("index.idx"), 16)) {
+            assertEquals(16, index.capacity());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(index.add("key-" + i));
+                if (i % 3 == 0) {
+                    assertTrue(index.remove("key-" + i));
+                }
+            }
+
+            assertTrue(index.capacity() > 16);
+            assertEquals(666, index.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i % 3 != 0, index.contains("key-" + i), "key-" + i);
+            }
+            assertFalse(Files.exists(tempDir.resolve("index.idx.rebuild")));
+        }
+    }
+
+    @Test
+    void testTombstonesAreDroppedOnRebuild() throws Exception {
+        try (MappedHashIndex index = MappedHashIndex.open(tempDir.resolve("index.idx"), 16)) {
+            for (int i = 0; i < 10_000; i++) {
+                index.add("key-" + i);
+                index.remove("key-" + i);
+            }
+            assertEquals(0, index.size());
+            assertEquals(16, index.capacity());
+        }
+    }
+
+    @Test
+    void testReopen() throws Exception {
+        Path indexFile = tempDir.resolve("index.idx");
+        try (MappedHashIndex index = MappedHashIndex.open(indexFile, 16)) {
+            for (int i = 0; i < 100; i++) {
+                index.add("key-" + i);
+            }
+            index.remove("key-0");
+        }
+
+        try (MappedHashIndex index = MappedHashIndex.open(indexFile, 16)) {
+            assertFalse(index.isCreated());
+            assertEquals(99, index.size());
+            assertFalse(index.contains("key-0"));
+            assertTrue(index.contains("key-99"));
+            assertTrue(index.add("key-0"));
+        }
+    }
+
+    @Test
+    void testCorruptFile() throws Exception {
+        Path indexFile = tempDir.resolve("index.idx");
+        Files.write(indexFile, "not an index file, but long enough to hold a header".getBytes());
+
+        try (MappedHashIndex index = MappedHashIndex.open(indexFile, 16)) {
+            assertTrue(index.isCreated());
+            assertEquals(0, index.size());
+            assertTrue(index.add("key"));
+        }
+    }
+
+    @Test
+    void testTruncatedFile() throws Exception {
+        Path indexFile = tempDir.resolve("index.idx");
+        try (MappedHashIndex index = MappedHashIndex.open(indexFile, 16)) {
+            index.add("key");
+        }
+        byte[] content = Files.readAllBytes(indexFile);
+        Files.write(indexFile, Arrays.copyOf(content, content.length - MappedHashIndex.SLOT_SIZE));
+
+        try (MappedHashIndex index = MappedHashIndex.open(indexFile, 16)) {
+            assertTrue(index.isCreated());
+            assertFalse(index.contains("key"));
+        }
+    }
+
+    @Test
+    void testMaxKeyLength() throws Exception {
+        try (MappedHashIndex index = MappedHashIndex.open(tempDir.resolve("index.idx"), 16)) {
+            String longestKey = "k".repeat(MappedHashIndex.MAX_KEY_LENGTH);
+            assertTrue(index.add(longestKey));
+            assertTrue(index.contains(longestKey));
+
+            assertThrows(IllegalArgumentException.class, () -> index.add(longestKey + "k"));
+            // the limit applies to the UTF-8 encoded key
+            assertThrows(IllegalArgumentException.class, () -> index.add("ø".repeat(MappedHashIndex.MAX_KEY_LENGTH / 2 + 1)));
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    void testClear() throws Exception {
+        try (MappedHashIndex index = MappedHashIndex.open(tempDir.resolve("index.idx"), 16)) {
+            index.add("key-1");
+            index.add("key-2");
+            index.clear();
+
+            assertEquals(0, index.size());
+            assertFalse(index.contains("key-1"));
+            assertTrue(index.add("key-1"));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImportDateSnapshotRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testWriteAndRestoreSnapshot() throws Exception {
+        String snapshotFile = tempDir.resolve("import-dates.json").toString();
+
+        ImportDateStore importDates = new ImportDateStore();
+        importDates.put("avi", LocalDateTime.parse("2021-04-13T09:09:45"), 0, 41);
+        ImportHistoryStore importHistory = new ImportHistoryStore(2);
+        importHistory.record("avi", LocalDateTime.parse("2021-04-12T09:09:45"), "avi_1");
+        importHistory.record("avi", LocalDateTime.parse("2021-04-13T09:09:45"), "avi_2");
+        ImportEventOffsetRepository offsetRepository = new ImportEventOffsetRepository();
+        offsetRepository.setState("rutedata-dataset-import-event-dev/0", "41");
+        new ImportDateSnapshotRepository(importDates, importHistory, offsetRepository, snapshotFile).writeSnapshot();
+
+        ImportDateStore restoredImportDates = new ImportDateStore();
+        ImportHistoryStore restoredImportHistory = new ImportHistoryStore(2);
+        ImportEventOffsetRepository restoredOffsetRepository = new ImportEventOffsetRepository();
+        ImportDateSnapshotRepository restoredSnapshotRepository = new ImportDateSnapshotRepository(restoredImportDates, restoredImportHistory, restoredOffsetRepository, snapshotFile);
+        restoredSnapshotRepository.restoreSnapshot();
+        // an event replayed after the restore is not recorded twice
+        restoredImportHistory.record("avi", LocalDateTime.parse("2021-04-13T09:09:45"), "avi_2");
+
+        assertTrue(restoredSnapshotRepository.isEnabled());
+        assertEquals("2021-04-13T09:09:45", restoredImportDates.getImportDate("avi"));
+        assertEquals(importHistory.getHistory("avi"), restoredImportHistory.getHistory("avi"));
+        assertEquals("41", restoredOffsetRepository.getState("rutedata-dataset-import-event-dev/0"));
+        assertEquals("0:41", restoredImportDates.getSnapshot().position().toString());
+    }
+
+    @Test
+    void testRestoreSnapshotWithoutPosition() throws Exception {
+        Path snapshotFile = tempDir.resolve("import-dates.json");
+        Files.writeString(snapshotFile, """
+                {"offsets":{"rutedata-dataset-import-event-dev/0":"41","rutedata-dataset-import-event-dev/1":"7"},"importDates":{"avi":1618304985}}
+                """);
+
+        ImportDateStore restoredImportDates = new ImportDateStore();
+        new ImportDateSnapshotRepository(restoredImportDates, new ImportHistoryStore(2), new ImportEventOffsetRepository(), snapshotFile.toString()).restoreSnapshot();
+
+        assertEquals("2021-04-13T09:09:45", restoredImportDates.getImportDate("avi"));
+        assertEquals("0:41,1:7", restoredImportDates.getSnapshot().position().toString());
+    }
+
+    @Test
+    void testSnapshotDisabled() throws Exception {
+        ImportDateSnapshotRepository snapshotRepository = new ImportDateSnapshotRepository(new ImportDateStore(), new ImportHistoryStore(1), new ImportEventOffsetRepository(), "");
+        assertFalse(snapshotRepository.isEnabled());
+        snapshotRepository.restoreSnapshot();
+        snapshotRepository.writeSnapshot();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImportDateStoreTest {
+
+    private static final LocalDateTime IMPORT_DATE = LocalDateTime.parse("2021-04-21T11:51:59");
+
+    @Test
+    void testResumeOnAnotherInstance() {
+        // two instances apply the events of two partitions in a different order
+        ImportDateStore instance1 = new ImportDateStore();
+        instance1.put("avi", IMPORT_DATE, 0, 10);
+        String version = instance1.getSnapshot().position().toString();
+        instance1.put("rut", IMPORT_DATE, 1, 20);
+        instance1.put("atb", IMPORT_DATE, 0, 11);
+
+        ImportDateStore instance2 = new ImportDateStore();
+        instance2.put("rut", IMPORT_DATE, 1, 20);
+        instance2.put("avi", IMPORT_DATE, 0, 10);
+        instance2.put("atb", IMPORT_DATE, 0, 11);
+
+        assertEquals("0:10", version);
+        ImportDateDelta delta = instance2.getChangesSince(version);
+        assertNotNull(delta);
+        assertEquals(List.of("rut", "atb"), delta.changes().stream().map(ImportDateChange::codespace).toList());
+        assertEquals(instance1.getSnapshot().position(), delta.position());
+        assertEquals("0:11,1:20", delta.position().toString());
+    }
+
+    @Test
+    void testReplayedEventIgnored() {
+        ImportDateStore importDateStore = new ImportDateStore();
+        importDateStore.put("avi", IMPORT_DATE, 0, 10);
+        importDateStore.put("avi", IMPORT_DATE.minusDays(1), 0, 9);
+        importDateStore.put("avi", IMPORT_DATE.minusDays(1), 0, 10);
+
+        assertEquals("2021-04-21T11:51:59", importDateStore.getImportDate("avi"));
+        assertEquals(1, importDateStore.getChangesSince("").changes().size());
+    }
+
+    @Test
+    void testBatchAdvancesToItsPosition() {
+        ImportDateStore importDateStore = new ImportDateStore();
+        // the batch contains only the last event per codespace, the events at 0:12 and 1:5 were left out
+        importDateStore.putAll(List.of(new ImportDateUpdate("rut", IMPORT_DATE, 0, 11), new ImportDateUpdate("avi", IMPORT_DATE, 0, 13)),
+                ImportEventPosition.parse("0:13,1:5"));
+
+        ImportDateDelta delta = importDateStore.getChangesSince("");
+        assertEquals("0:13,1:5", delta.position().toString());
+        assertEquals(List.of("rut", "avi"), delta.changes().stream().map(ImportDateChange::codespace).toList());
+
+        // the events left out are not applied when they are replayed
+        importDateStore.put("avi", IMPORT_DATE.minusDays(1), 0, 12);
+        importDateStore.put("avi", IMPORT_DATE.minusDays(1), 1, 5);
+        assertEquals("2021-04-21T11:51:59", importDateStore.getImportDate("avi"));
+    }
+
+    @Test
+    void testChangesNotAvailable() {
+        ImportDateStore importDateStore = new ImportDateStore();
+        importDateStore.put("avi", IMPORT_DATE, 0, 10);
+
+        // invalid version
+        assertNull(importDateStore.getChangesSince("unknown.1"));
+        // events not applied yet by this instance
+        assertNull(importDateStore.getChangesSince("0:11"));
+        assertNull(importDateStore.getChangesSince("0:10,1:0"));
+
+        // changes evicted from memory
+        for (int offset = 11; offset < 2100; offset++) {
+            importDateStore.put("avi", IMPORT_DATE.plusSeconds(offset), 0, offset);
+        }
+        assertNull(importDateStore.getChangesSince("0:10"));
+        assertNotNull(importDateStore.getChangesSince("0:2000"));
+    }
+
+    @Test
+    void testRestore() {
+        ImportDateStore importDateStore = new ImportDateStore();
+        importDateStore.restore(Map.of("avi", 1619005919L), ImportEventPosition.parse("0:10"));
+        importDateStore.put("avi", IMPORT_DATE.minusDays(1), 0, 10);
+        importDateStore.put("rut", IMPORT_DATE, 0, 11);
+
+        assertEquals("2021-04-21T11:51:59", importDateStore.getImportDate("avi"));
+        assertEquals(List.of("rut"), importDateStore.getChangesSince("0:10").changes().stream().map(ImportDateChange::codespace).toList());
+        // the changes before the restore are not available
+        assertNull(importDateStore.getChangesSince("0:9"));
+    }
+
+    @Test
+    void testSnapshotIsEncodedWhenPublished() {
+        ImportDateStore instance1 = new ImportDateStore();
+        instance1.put("rut", IMPORT_DATE, 0, 10);
+        instance1.put("avi", IMPORT_DATE, 0, 11);
+        VersionedImportDates snapshot = instance1.getSnapshot();
+        assertSame(snapshot, instance1.getSnapshot());
+        assertEquals("{\"avi\":\"2021-04-21T11:51:59\",\"rut\":\"2021-04-21T11:51:59\"}",
+                new String(snapshot.representation(VersionedImportDates.Format.JSON, false).body(), StandardCharsets.UTF_8));
+
+        // the entity tags depend only on the import dates, and differ per format and content encoding
+        ImportDateStore instance2 = new ImportDateStore();
+        instance2.put("avi", IMPORT_DATE, 1, 5);
+        instance2.put("rut", IMPORT_DATE, 1, 6);
+        Set<String> eTags = new HashSet<>();
+        for (VersionedImportDates.Format format : VersionedImportDates.Format.values()) {
+            for (boolean gzip : new boolean[]{false, true}) {
+                String eTag = snapshot.representation(format, gzip).eTag();
+                assertEquals(eTag, instance2.getSnapshot().representation(format, gzip).eTag());
+                assertTrue(eTags.add(eTag));
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImportHistoryStoreTest {
+
+    private static final LocalDateTime IMPORT_DATE = LocalDateTime.parse("2021-04-21T11:51:59");
+
+    @Test
+    void testHistoryWrapsAround() {
+        ImportHistoryStore importHistoryStore = new ImportHistoryStore(3);
+        for (int i = 1; i <= 5; i++) {
+            importHistoryStore.record("avi", IMPORT_DATE.plusDays(i), "avi_" + i);
+        }
+
+        assertEquals(List.of("avi_5", "avi_4", "avi_3"), importKeys(importHistoryStore.getHistory("avi")));
+        assertEquals("2021-04-26T11:51:59", importHistoryStore.getHistory("AVI").getFirst().importDate());
+    }
+
+    @Test
+    void testReplayAfterWrapAround() {
+        ImportHistoryStore importHistoryStore = new ImportHistoryStore(3);
+        for (int i = 1; i <= 5; i++) {
+            importHistoryStore.record("avi", IMPORT_DATE.plusDays(i), "avi_" + i);
+        }
+        // the events are replayed from the beginning after a restore
+        for (int i = 1; i <= 5; i++) {
+            importHistoryStore.record("avi", IMPORT_DATE.plusDays(i), "avi_" + i);
+        }
+
+        assertEquals(List.of("avi_5", "avi_4", "avi_3"), importKeys(importHistoryStore.getHistory("avi")));
+    }
+
+    @Test
+    void testOutOfOrderImports() {
+        ImportHistoryStore importHistoryStore = new ImportHistoryStore(3);
+        importHistoryStore.record("avi", IMPORT_DATE.plusDays(4), "avi_4");
+        importHistoryStore.record("avi", IMPORT_DATE.plusDays(1), "avi_1");
+        importHistoryStore.record("avi", IMPORT_DATE.plusDays(3), "avi_3");
+        assertEquals(List.of("avi_4", "avi_3", "avi_1"), importKeys(importHistoryStore.getHistory("avi")));
+
+        // an older import drops the oldest import only if it is more recent
+        importHistoryStore.record("avi", IMPORT_DATE.plusDays(2), "avi_2");
+        assertEquals(List.of("avi_4", "avi_3", "avi_2"), importKeys(importHistoryStore.getHistory("avi")));
+        importHistoryStore.record("avi", IMPORT_DATE, "avi_0");
+        assertEquals(List.of("avi_4", "avi_3", "avi_2"), importKeys(importHistoryStore.getHistory("avi")));
+    }
+
+    @Test
+    void testImportsAtTheSameTime() {
+        ImportHistoryStore importHistoryStore = new ImportHistoryStore(3);
+        importHistoryStore.record("avi", IMPORT_DATE, "avi_1");
+        importHistoryStore.record("avi", IMPORT_DATE, "avi_2");
+        importHistoryStore.record("avi", IMPORT_DATE, "avi_1");
+        importHistoryStore.record("avi", IMPORT_DATE, null);
+
+        assertEquals(List.of("", "avi_2", "avi_1"), importKeys(importHistoryStore.getHistory("avi")));
+    }
+
+    @Test
+    void testRestoreHistories() {
+        ImportHistoryStore importHistoryStore = new ImportHistoryStore(2);
+        importHistoryStore.record("avi", IMPORT_DATE, "avi_1");
+        importHistoryStore.record("avi", IMPORT_DATE.plusDays(1), "avi_2");
+
+        ImportHistoryStore restoredImportHistoryStore = new ImportHistoryStore(2);
+        restoredImportHistoryStore.putAll(importHistoryStore.getHistories());
+
+        assertEquals(importHistoryStore.getHistory("avi"), restoredImportHistoryStore.getHistory("avi"));
+        assertNull(restoredImportHistoryStore.getHistory("rut"));
+    }
+
+    @Test
+    void testInvalidHistorySize() {
+        assertThrows(IllegalArgumentException.class, () -> new ImportHistoryStore(0));
+    }
+
+    private static List<String> importKeys(List<ImportHistoryEntry> importHistory) {
+        return importHistory.stream().map(ImportHistoryEntry::importKey).toList();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.importdate;
+
+import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
+import io.confluent.kafka.serializers.KafkaAvroDeserializerConfig;
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+import no.entur.nisaba.avro.NetexImportDate;
+import no.entur.nisaba.avro.NetexImportEvent;
+import no.entur.nisaba.event.NetexImportEventFactory;
+import no.entur.nisaba.event.NetexImportEventKeyFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class NetexImportDateDeserializerTest {
+
+    private static final String TOPIC = "rutedata-dataset-import-event-dev";
+
+    @Test
+    void testDeserializeNetexImportEventIntoProjection() {
+        Map<String, Object> config = Map.of(
+                AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "mock://" + getClass().getSimpleName(),
+                KafkaAvroDeserializerConfig.SPECIFIC_AVRO_READER_CONFIG, true);
+
+        LocalDateTime creationTime = LocalDateTime.parse("2021-04-13T09:09:45.409");
+        String importKey = NetexImportEventKeyFactory.createNetexImportEventKey("avi", creationTime);
+        NetexImportEvent netexImportEvent = new NetexImportEventFactory("marduk")
+                .createNetexImportEvent("avi", creationTime, importKey, "avi_2021-04-13T09_09_45", "outbound/netex/rb_avi-aggregated-netex.zip");
+
+        byte[] data;
+        try (KafkaAvroSerializer serializer = new KafkaAvroSerializer()) {
+            serializer.configure(config, false);
+            data = serializer.serialize(TOPIC, netexImportEvent);
+        }
+
+        Object deserialized;
+        try (NetexImportDateDeserializer deserializer = new NetexImportDateDeserializer()) {
+            deserializer.configure(config, false);
+            deserialized = deserializer.deserialize(TOPIC, data);
+        }
+
+        NetexImportDate netexImportDate = assertInstanceOf(NetexImportDate.class, deserialized);
+        assertEquals("avi", netexImportDate.getCodespace().toString());
+        assertEquals(netexImportEvent.getImportDateTime().toString(), netexImportDate.getImportDateTime().toString());
+        assertEquals(importKey, netexImportDate.getImportKey().toString());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompositeFrameCreatedAttributeParserTest {
+
+    @Test
+    void testParseCreatedAttribute() throws Exception {
+        try (InputStream netexDocument = getClass().getResourceAsStream("/no/entur/nisaba/netex/import/_AVI_shared_data.xml")) {
+            assertEquals("2021-04-13T09:09:45.409", CompositeFrameCreatedAttributeParser.parseCreatedAttribute(netexDocument));
+        }
+    }
+
+    @Test
+    void testRootIsNotPublicationDelivery() throws Exception {
+        assertNull(parse("<ResponseTimestamp xmlns=\"http://www.netex.org.uk/netex\">"
+                + "<dataObjects><CompositeFrame created=\"2021-04-13T09:09:45.409\"/></dataObjects></ResponseTimestamp>"));
+        // PublicationDelivery outside the NeTEx namespace
+        assertNull(parse("<PublicationDelivery><dataObjects><CompositeFrame created=\"2021-04-13T09:09:45.409\"/></dataObjects></PublicationDelivery>"));
+    }
+
+    @Test
+    void testMissingCompositeFrame() throws Exception {
+        assertNull(parse("<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\"><dataObjects><ServiceFrame/></dataObjects></PublicationDelivery>"));
+        assertNull(parse("<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\"><Description/></PublicationDelivery>"));
+    }
+
+    @Test
+    void testMissingCreatedAttribute() throws Exception {
+        assertNull(parse("<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\"><dataObjects><CompositeFrame/></dataObjects></PublicationDelivery>"));
+    }
+
+    @Test
+    void testMalformedDocument() {
+        assertThrows(XMLStreamException.class, () -> parse("<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\"><dataObjects"));
+    }
+
+    private static String parse(String netexDocument) throws XMLStreamException {
+        return CompositeFrameCreatedAttributeParser.parseCreatedAttribute(new ByteArrayInputStream(netexDocument.getBytes(StandardCharsets.UTF_8)));
+    }
+}
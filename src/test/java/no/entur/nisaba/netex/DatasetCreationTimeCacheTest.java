@@ -0,0 +1,89 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import org.apache.camel.support.processor.state.MemoryStateRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DatasetCreationTimeCacheTest {
+
+    private static final LocalDateTime T1 = LocalDateTime.parse("2021-04-13T09:09:45");
+    private static final LocalDateTime T2 = LocalDateTime.parse("2021-04-14T10:00");
+
+    private MemoryStateRepository stateRepository;
+    private DatasetCreationTimeCache cache;
+
+    @BeforeEach
+    void setUp() {
+        stateRepository = new MemoryStateRepository();
+        cache = new DatasetCreationTimeCache(stateRepository);
+    }
+
+    @Test
+    void testRoundTrip() {
+        cache.put("avi", "0a1b2c", List.of(T2, T1));
+
+        assertEquals("0a1b2c|2021-04-14T10:00,2021-04-13T09:09:45", stateRepository.getState("avi"));
+        assertEquals(new TreeSet<>(List.of(T1, T2)), cache.get("avi", "0a1b2c"));
+    }
+
+    @Test
+    void testFingerprintMismatch() {
+        cache.put("avi", "0a1b2c", List.of(T1));
+
+        assertNull(cache.get("avi", "3d4e5f"));
+        assertNull(cache.get("nsb", "0a1b2c"));
+    }
+
+    @Test
+    void testNewVersionEvictsPreviousEntry() {
+        cache.put("avi", "0a1b2c", List.of(T1));
+        cache.put("avi", "3d4e5f", List.of(T2));
+
+        assertNull(cache.get("avi", "0a1b2c"));
+        assertEquals(new TreeSet<>(List.of(T2)), cache.get("avi", "3d4e5f"));
+    }
+
+    @Test
+    void testMalformedStoredValue() {
+        stateRepository.setState("avi", "0a1b2c|not-a-date");
+        assertNull(cache.get("avi", "0a1b2c"));
+
+        stateRepository.setState("avi", "0a1b2c");
+        assertNull(cache.get("avi", "0a1b2c"));
+
+        stateRepository.setState("avi", "0a1b2c|");
+        assertNull(cache.get("avi", "0a1b2c"));
+    }
+
+    @Test
+    void testMissingHeaders() {
+        cache.put("avi", null, List.of(T1));
+        cache.put("avi", "0a1b2c", List.of());
+
+        assertNull(stateRepository.getState("avi"));
+        assertNull(cache.get(null, "0a1b2c"));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.netex;
+
+import org.apache.camel.support.processor.state.MemoryStateRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NetexArchiveScannerTest {
+
+    private static final String T1 = "2021-04-01T09:09:45.409";
+    private static final String T2 = "2021-04-05T09:09:45.409";
+    private static final String T3 = "2021-04-13T09:09:45.409";
+
+    private NetexArchiveEntryCache archiveEntryCache;
+
+    @BeforeEach
+    void setUp() {
+        archiveEntryCache = new NetexArchiveEntryCache(new MemoryStateRepository());
+    }
+
+    @Test
+    void testNonXmlEntriesAreSkipped() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+        TreeSet<LocalDateTime> creationTimes = scanner.retrieveCreationTimes(archive(Map.of(
+                "a.xml", netexDocument(T1),
+                "notXml.txt", "test",
+                "folder/", "",
+                "b.xml", netexDocument(T2))), "avi");
+
+        assertEquals(List.of("a.xml", "b.xml"), scanner.sortedOpenedEntries());
+        assertEquals(creationTimes(T1, T2), creationTimes);
+    }
+
+    @Test
+    void testArchiveWithoutXmlFile() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+        InputStream archive = archive(Map.of("notXml.txt", "test"));
+
+        assertThrows(IllegalStateException.class, () -> scanner.retrieveCreationTimes(archive, "avi"));
+        assertEquals(List.of(), scanner.openedEntries);
+    }
+
+    @Test
+    void testMissingCreatedAttribute() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+        TreeSet<LocalDateTime> creationTimes = scanner.retrieveCreationTimes(archive(Map.of(
+                "a.xml", netexDocument(T1),
+                "b.xml", "<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\"><dataObjects><CompositeFrame/></dataObjects></PublicationDelivery>")), "avi");
+
+        assertEquals(NetexArchiveScanner.EPOCH, creationTimes.first());
+        assertEquals(LocalDateTime.parse(T1), creationTimes.last());
+    }
+
+    @Test
+    void testInflationStopsAtCompositeFrame() throws Exception {
+        String trailingFrames = "<ServiceFrame>" + "x".repeat(100_000) + "</ServiceFrame>";
+        String netexDocument = netexDocument(T1).replace("</dataObjects>", trailingFrames + "</dataObjects>");
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(1024);
+
+        TreeSet<LocalDateTime> creationTimes = scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument)), "avi");
+
+        assertEquals(creationTimes(T1), creationTimes);
+        assertEquals(List.of("a.xml"), scanner.openedEntries);
+        assertTrue(scanner.readBytes.get("a.xml") <= 1024, "read " + scanner.readBytes.get("a.xml") + " bytes");
+    }
+
+    @Test
+    void testFallbackToFullReadWhenCompositeFrameIsBeyondPrefix() throws Exception {
+        String netexDocument = netexDocument(T2, "x".repeat(5000));
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(1024);
+
+        TreeSet<LocalDateTime> creationTimes = scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1), "b.xml", netexDocument)), "avi");
+
+        assertEquals(creationTimes(T1, T2), creationTimes);
+        // a.xml is parsed within the prefix, b.xml is opened a second time for a full read
+        assertEquals(List.of("a.xml", "b.xml", "b.xml"), scanner.sortedOpenedEntries());
+        assertTrue(scanner.readBytes.get("b.xml") > netexDocument.length(), "read " + scanner.readBytes.get("b.xml") + " bytes");
+    }
+
+    @Test
+    void testPrefixLimitDisabled() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+
+        TreeSet<LocalDateTime> creationTimes = scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T2, "x".repeat(5000)))), "avi");
+
+        assertEquals(creationTimes(T2), creationTimes);
+        assertEquals(List.of("a.xml"), scanner.openedEntries);
+    }
+
+    @Test
+    void testUnchangedEntriesAreNotParsedAgain() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+        scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1), "b.xml", netexDocument(T2))), "avi");
+        assertEquals(List.of("a.xml", "b.xml"), scanner.sortedOpenedEntries());
+
+        // re-exported archive: a.xml has the same CRC and size, b.xml is modified
+        CountingNetexArchiveScanner rescanner = new CountingNetexArchiveScanner(0);
+        TreeSet<LocalDateTime> creationTimes = rescanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1), "b.xml", netexDocument(T3))), "avi");
+
+        assertEquals(List.of("b.xml"), rescanner.sortedOpenedEntries());
+        assertEquals(creationTimes(T1, T3), creationTimes);
+    }
+
+    @Test
+    void testRemovedEntriesAreEvicted() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+        scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1), "b.xml", netexDocument(T2))), "avi");
+        scanner.retrieveCreationTimes(archive(Map.of("b.xml", netexDocument(T2))), "avi");
+        scanner.openedEntries.clear();
+
+        TreeSet<LocalDateTime> creationTimes = scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1), "b.xml", netexDocument(T2))), "avi");
+
+        assertEquals(List.of("a.xml"), scanner.sortedOpenedEntries());
+        assertEquals(creationTimes(T1, T2), creationTimes);
+    }
+
+    @Test
+    void testCacheIsPerCodespace() throws Exception {
+        CountingNetexArchiveScanner scanner = new CountingNetexArchiveScanner(0);
+        scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1))), "avi");
+        scanner.openedEntries.clear();
+
+        scanner.retrieveCreationTimes(archive(Map.of("a.xml", netexDocument(T1))), "nsb");
+
+        assertEquals(List.of("a.xml"), scanner.sortedOpenedEntries());
+    }
+
+    static InputStream archive(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(archive)) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet()) {
+                zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                zipOutputStream.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zipOutputStream.closeEntry();
+            }
+        }
+        return new ByteArrayInputStream(archive.toByteArray());
+    }
+
+    static String netexDocument(String created) {
+        return netexDocument(created, "");
+    }
+
+    static String netexDocument(String created, String description) {
+        return "<?xml version='1.0' encoding='UTF-8'?>"
+                + "<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\" version=\"1.11:NO-NeTEx-networktimetable:1.3\">"
+                + "<Description>" + description + "</Description>"
+                + "<dataObjects><CompositeFrame created=\"" + created + "\" version=\"1\" id=\"AVI:CompositeFrame:1\"/></dataObjects>"
+                + "</PublicationDelivery>";
+    }
+
+    static TreeSet<LocalDateTime> creationTimes(String... creationTimes) {
+        TreeSet<LocalDateTime> result = new TreeSet<>();
+        for (String creationTime : creationTimes) {
+            result.add(LocalDateTime.parse(creationTime));
+        }
+        return result;
+    }
+
+    /**
+     * Record the entries opened by the scanner and the number of inflated bytes read from each of them.
+     */
+    private class CountingNetexArchiveScanner extends NetexArchiveScanner {
+
+        private final List<String> openedEntries = new ArrayList<>();
+        private final Map<String, Long> readBytes = new HashMap<>();
+
+        private CountingNetexArchiveScanner(long maxPrefixSize) {
+            super(null, maxPrefixSize, archiveEntryCache);
+        }
+
+        @Override
+        InputStream openEntry(ZipFile zipFile, ZipEntry xmlEntry) throws IOException {
+            openedEntries.add(xmlEntry.getName());
+            return new FilterInputStream(super.openEntry(zipFile, xmlEntry)) {
+                @Override
+                public int read() throws IOException {
+                    int result = super.read();
+                    if (result != -1) {
+                        readBytes.merge(xmlEntry.getName(), 1L, Long::sum);
+                    }
+                    return result;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int result = super.read(b, off, len);
+                    if (result > 0) {
+                        readBytes.merge(xmlEntry.getName(), (long) result, Long::sum);
+                    }
+                    return result;
+                }
+            };
+        }
+
+        private List<String> sortedOpenedEntries() {
+            return openedEntries.stream().sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.rest;
+
+import no.entur.nisaba.importdate.ImportDateStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+@WebMvcTest(controllers = ImportDateEventsController.class)
+@ContextConfiguration(classes = {
+    ImportDateEventsController.class,
+    ImportDateEventsControllerTest.TestConfig.class
+})
+class ImportDateEventsControllerTest {
+
+    @Configuration
+    static class TestConfig {
+        @Bean
+        public ImportDateStore importDateStore() {
+            return new ImportDateStore();
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ImportDateStore importDateStore;
+
+    @BeforeEach
+    void setup() {
+        importDateStore.clear();
+        importDateStore.put("avi", LocalDateTime.parse("2021-04-21T11:51:59"));
+        importDateStore.put("rut", LocalDateTime.parse("2021-05-15T09:30:00"));
+        importDateStore.put("atb", LocalDateTime.parse("2021-06-10T14:20:30"));
+    }
+
+    @Test
+    void testStreamImportDateChanges() throws Exception {
+        MvcResult result = mockMvc.perform(get("/timetable-import-info/import_date_events"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        String events = awaitContent(result, "atb");
+        assertTrue(events.contains("event:import-dates\n"));
+        assertTrue(events.contains("id:" + importDateStore.getSnapshot().position() + "\n"));
+        assertTrue(events.contains("\"avi\":\"2021-04-21T11:51:59\""));
+
+        importDateStore.put("flt", LocalDateTime.parse("2021-07-01T08:00:00"));
+
+        events = awaitContent(result, "flt");
+        assertTrue(events.contains("event:import-date\n"));
+        assertTrue(events.contains("id:" + importDateStore.getSnapshot().position() + "\n"));
+        assertTrue(events.contains("\"importDate\":\"2021-07-01T08:00:00\""));
+    }
+
+    @Test
+    void testStreamImportDateChanges_Resume() throws Exception {
+        String version = importDateStore.getSnapshot().position().toString();
+        importDateStore.put("atb", LocalDateTime.parse("2021-06-11T14:20:30"));
+        MvcResult result = mockMvc.perform(get("/timetable-import-info/import_date_events")
+                .header("Last-Event-ID", version))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        importDateStore.put("flt", LocalDateTime.parse("2021-07-01T08:00:00"));
+
+        String events = awaitContent(result, "flt");
+        assertTrue(events.contains("event:import-date\n"));
+        assertTrue(events.contains("id:" + importDateStore.getSnapshot().position() + "\n"));
+        assertTrue(events.contains("\"atb\""));
+        assertFalse(events.contains("\"avi\""));
+        assertFalse(events.contains("event:import-dates\n"));
+    }
+
+    @Test
+    void testStreamImportDateChanges_ResumeWithoutMissedChanges() throws Exception {
+        String version = importDateStore.getSnapshot().position().toString();
+        MvcResult result = mockMvc.perform(get("/timetable-import-info/import_date_events").param("since", version))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        importDateStore.put("flt", LocalDateTime.parse("2021-07-01T08:00:00"));
+
+        String events = awaitContent(result, "flt");
+        // the change is sent once, after the resume version
+        assertTrue(events.startsWith("event:import-date\n"));
+        assertFalse(events.contains("\"atb\""));
+        assertEquals(events.indexOf("flt"), events.lastIndexOf("flt"));
+    }
+
+    @Test
+    void testStreamImportDateChanges_UnknownVersion() throws Exception {
+        MvcResult result = mockMvc.perform(get("/timetable-import-info/import_date_events").param("since", "unknown.1"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        String events = awaitContent(result, "atb");
+        assertTrue(events.contains("event:import-dates\n"));
+        assertTrue(events.contains("\"avi\":\"2021-04-21T11:51:59\""));
+    }
+
+    private static String awaitContent(MvcResult result, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = result.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            content = result.getResponse().getContentAsString();
+        }
+        return content;
+    }
+}
@@ -17,22 +17,39 @@
 package no.entur.nisaba.rest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import no.entur.nisaba.avro.ImportDates;
+import no.entur.nisaba.config.WebMvcConfig;
+import no.entur.nisaba.importdate.ImportDateStore;
+import no.entur.nisaba.importdate.ImportHistoryStore;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.util.Utf8;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.GZIPInputStream;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @WebMvcTest(controllers = {
     TimetableImportInfoController.class,
@@ -41,15 +58,21 @@ import static org.hamcrest.Matchers.*;
 @ContextConfiguration(classes = {
     TimetableImportInfoController.class,
     OpenApiController.class,
+    WebMvcConfig.class,
     TimetableImportInfoControllerTest.TestConfig.class
 })
 class TimetableImportInfoControllerTest {
 
     @Configuration
     static class TestConfig {
-        @Bean("importDatesMap")
-        public Map<String, String> importDatesMap() {
-            return new ConcurrentHashMap<>();
+        @Bean
+        public ImportDateStore importDateStore() {
+            return new ImportDateStore();
+        }
+
+        @Bean
+        public ImportHistoryStore importHistoryStore() {
+            return new ImportHistoryStore(2);
         }
 
         @Bean
@@ -62,14 +85,21 @@ class TimetableImportInfoControllerTest {
     private MockMvc mockMvc;
 
     @Autowired
-    private Map<String, String> importDatesMap;
+    private ImportDateStore importDateStore;
+
+    @Autowired
+    private ImportHistoryStore importHistoryStore;
 
     @BeforeEach
     void setup() {
-        importDatesMap.clear();
-        importDatesMap.put("avi", "2021-04-21T11:51:59");
-        importDatesMap.put("rut", "2021-05-15T09:30:00");
-        importDatesMap.put("atb", "2021-06-10T14:20:30");
+        importDateStore.clear();
+        importDateStore.put("avi", LocalDateTime.parse("2021-04-21T11:51:59"));
+        importDateStore.put("rut", LocalDateTime.parse("2021-05-15T09:30:00"));
+        importDateStore.put("atb", LocalDateTime.parse("2021-06-10T14:20:30"));
+        importHistoryStore.clear();
+        importHistoryStore.record("avi", LocalDateTime.parse("2021-04-14T10:02:13"), "avi_1");
+        importHistoryStore.record("avi", LocalDateTime.parse("2021-04-20T08:00:00"), "avi_2");
+        importHistoryStore.record("avi", LocalDateTime.parse("2021-04-21T11:51:59"), "avi_3");
     }
 
     @Test
@@ -82,14 +112,209 @@ class TimetableImportInfoControllerTest {
             .andExpect(jsonPath("$.atb").value("2021-06-10T14:20:30"));
     }
 
+    @Test
+    void testGetAllImportDates_NotModified() throws Exception {
+        String eTag = mockMvc.perform(get("/timetable-import-info/import_date"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, allOf(startsWith("\""), endsWith("-json\""))))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.IF_NONE_MATCH, eTag))
+            .andExpect(status().isNotModified());
+
+        String gzipETag = mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, endsWith("-json-gzip\"")))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/timetable-import-info/import_date")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH, gzipETag))
+            .andExpect(status().isNotModified());
+
+        // the plain and the compressed body are different representations
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.IF_NONE_MATCH, gzipETag))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, eTag));
+
+        importDateStore.put("flt", LocalDateTime.parse("2021-07-01T08:00:00"));
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.IF_NONE_MATCH, eTag))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, not(eTag)))
+            .andExpect(jsonPath("$.flt").value("2021-07-01T08:00:00"));
+    }
+
+    @Test
+    void testGetAllImportDates_Gzip() throws Exception {
+        MvcResult result = mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+            .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT_ENCODING)))
+            .andReturn();
+        assertEquals(result.getResponse().getContentAsByteArray().length, result.getResponse().getContentLength());
+        String json = new String(gunzip(result.getResponse().getContentAsByteArray()), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"avi\":\"2021-04-21T11:51:59\""));
+
+        MvcResult avroResult = mockMvc.perform(get("/timetable-import-info/import_date")
+                .header(HttpHeaders.ACCEPT, "application/avro")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(VersionedImportDatesHttpMessageConverter.APPLICATION_AVRO))
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+            .andReturn();
+        SpecificDatumReader<ImportDates> reader = new SpecificDatumReader<>(ImportDates.class);
+        ImportDates importDates = reader.read(null, DecoderFactory.get().binaryDecoder(gunzip(avroResult.getResponse().getContentAsByteArray()), null));
+        assertEquals(3, importDates.getImportDates().size());
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+            .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT_ENCODING)))
+            .andExpect(jsonPath("$.avi").value("2021-04-21T11:51:59"));
+    }
+
+    @Test
+    void testAcceptsGzip() {
+        assertTrue(TimetableImportInfoController.acceptsGzip("gzip"));
+        assertTrue(TimetableImportInfoController.acceptsGzip("br;q=1.0, GZIP;q=0.8"));
+        assertFalse(TimetableImportInfoController.acceptsGzip("gzip;q=0"));
+        assertFalse(TimetableImportInfoController.acceptsGzip("deflate, br"));
+        assertFalse(TimetableImportInfoController.acceptsGzip(null));
+    }
+
+    @Test
+    void testGetAllImportDates_Avro() throws Exception {
+        String eTag = mockMvc.perform(get("/timetable-import-info/import_date"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        MvcResult result = mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT, "application/avro, application/json;q=0.5"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(VersionedImportDatesHttpMessageConverter.APPLICATION_AVRO))
+            .andExpect(header().string(HttpHeaders.ETAG, allOf(not(eTag), endsWith("-avro\""))))
+            .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+            .andReturn();
+
+        SpecificDatumReader<ImportDates> reader = new SpecificDatumReader<>(ImportDates.class);
+        ImportDates importDates = reader.read(null, DecoderFactory.get().binaryDecoder(result.getResponse().getContentAsByteArray(), null));
+        assertEquals(LocalDateTime.parse("2021-04-21T11:51:59").toEpochSecond(ZoneOffset.UTC), importDates.getImportDates().get(new Utf8("avi")));
+        assertEquals(3, importDates.getImportDates().size());
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT, "application/json, application/avro;q=0.5"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.avi").value("2021-04-21T11:51:59"));
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT, "application/json;q=0.5, application/avro"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(VersionedImportDatesHttpMessageConverter.APPLICATION_AVRO));
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT, "*/*"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.avi").value("2021-04-21T11:51:59"));
+
+        mockMvc.perform(get("/timetable-import-info/import_date").header(HttpHeaders.ACCEPT, "application/avro;q=0"))
+            .andExpect(status().isNotAcceptable());
+    }
+
     @Test
     void testGetAllImportDates_EmptyMap() throws Exception {
-        importDatesMap.clear();
+        importDateStore.clear();
 
         mockMvc.perform(get("/timetable-import-info/import_date"))
             .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testGetImportHistoryByCodespace() throws Exception {
+        mockMvc.perform(get("/timetable-import-info/import_date/AVI/history"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$", hasSize(2)))
+            .andExpect(jsonPath("$[0].importDate").value("2021-04-21T11:51:59"))
+            .andExpect(jsonPath("$[0].importKey").value("avi_3"))
+            .andExpect(jsonPath("$[1].importKey").value("avi_2"));
+    }
+
+    @Test
+    void testGetImportHistoryByCodespace_NotFound() throws Exception {
+        mockMvc.perform(get("/timetable-import-info/import_date/unknown/history"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetImportDatesByCodespaces() throws Exception {
+        mockMvc.perform(get("/timetable-import-info/import_dates").param("codespaces", "avi,RUT,xyz,avi"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.importDates.avi").value("2021-04-21T11:51:59"))
+            .andExpect(jsonPath("$.importDates.RUT").value("2021-05-15T09:30:00"))
+            .andExpect(jsonPath("$.importDates.atb").doesNotExist())
+            .andExpect(jsonPath("$.unknownCodespaces", contains("xyz")));
+    }
+
+    @Test
+    void testGetImportDatesAfter() throws Exception {
+        mockMvc.perform(get("/timetable-import-info/import_dates_after").param("after", "2021-05-01T00:00:00"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(2)))
+            .andExpect(jsonPath("$[0].codespace").value("atb"))
+            .andExpect(jsonPath("$[0].importDate").value("2021-06-10T14:20:30"))
+            .andExpect(jsonPath("$[1].codespace").value("rut"));
+
+        mockMvc.perform(get("/timetable-import-info/import_dates_after").param("after", "2021-01-01T00:00:00").param("limit", "1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(1)))
+            .andExpect(jsonPath("$[0].codespace").value("atb"));
+
+        mockMvc.perform(get("/timetable-import-info/import_dates_after").param("after", "2021-06-10T14:20:30"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    void testGetImportDatesAfter_InvalidTime() throws Exception {
+        mockMvc.perform(get("/timetable-import-info/import_dates_after").param("after", "yesterday"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetImportDateChanges() throws Exception {
+        String version = JsonPath.read(mockMvc.perform(get("/timetable-import-info/import_date_changes"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.full").value(true))
+            .andExpect(jsonPath("$.importDates.avi").value("2021-04-21T11:51:59"))
+            .andExpect(jsonPath("$.importDates.atb").value("2021-06-10T14:20:30"))
+            .andReturn().getResponse().getContentAsString(), "$.version");
+
+        mockMvc.perform(get("/timetable-import-info/import_date_changes").param("since", version))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.full").value(false))
+            .andExpect(jsonPath("$.version").value(version))
+            .andExpect(jsonPath("$.importDates", anEmptyMap()));
+
+        importDateStore.put("rut", LocalDateTime.parse("2021-07-01T08:00:00"));
+        importDateStore.put("rut", LocalDateTime.parse("2021-07-02T08:00:00"));
+
+        mockMvc.perform(get("/timetable-import-info/import_date_changes").param("since", version))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.full").value(false))
+            .andExpect(jsonPath("$.version").value(not(version)))
+            .andExpect(jsonPath("$.importDates.rut").value("2021-07-02T08:00:00"))
+            .andExpect(jsonPath("$.importDates.avi").doesNotExist());
+    }
+
+    @Test
+    void testGetImportDateChanges_UnknownVersion() throws Exception {
+        mockMvc.perform(get("/timetable-import-info/import_date_changes").param("since", "unknown.1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.full").value(true))
+            .andExpect(jsonPath("$.importDates.rut").value("2021-05-15T09:30:00"));
+    }
+
     @Test
     void testGetImportDateByCodespace() throws Exception {
         mockMvc.perform(get("/timetable-import-info/import_date/avi"))
@@ -120,4 +345,10 @@ class TimetableImportInfoControllerTest {
             .andExpect(content().string(containsString("openapi:")))
             .andExpect(content().string(containsString("Timetable Import Info")));
     }
-}
\ No newline at end of file
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return gzipInputStream.readAllBytes();
+        }
+    }
+}
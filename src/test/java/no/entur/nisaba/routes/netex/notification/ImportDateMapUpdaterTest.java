@@ -19,9 +19,17 @@ package no.entur.nisaba.routes.netex.notification;
 import no.entur.nisaba.NisabaRouteBuilderIntegrationTestBase;
 import no.entur.nisaba.TestApp;
 import no.entur.nisaba.avro.NetexImportEvent;
+import no.entur.nisaba.importdate.ImportDateChange;
+import no.entur.nisaba.importdate.ImportDateDelta;
+import no.entur.nisaba.importdate.ImportDateStore;
+import no.entur.nisaba.importdate.ImportHistoryEntry;
+import no.entur.nisaba.importdate.ImportHistoryStore;
+import org.apache.camel.Exchange;
 import org.apache.camel.Produce;
 import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.AdviceWith;
+import org.apache.camel.component.kafka.KafkaConstants;
+import org.apache.camel.support.DefaultExchange;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +38,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -40,8 +49,14 @@ class ImportDateMapUpdaterTest extends NisabaRouteBuilderIntegrationTestBase {
     @Produce("direct:updateImportDateMap")
     protected ProducerTemplate updateImportDateMapProducer;
 
+    @Produce("direct:updateImportDateMapBatch")
+    protected ProducerTemplate updateImportDateMapBatchProducer;
+
+    @Autowired
+    private ImportDateStore importDateStore;
+
     @Autowired
-    private Map<String, String> importDatesMap;
+    private ImportHistoryStore importHistoryStore;
 
     @BeforeEach
     void mockKafkaProducer() throws Exception {
@@ -55,7 +70,7 @@ class ImportDateMapUpdaterTest extends NisabaRouteBuilderIntegrationTestBase {
         context.start();
 
         // Clear the map before testing
-        importDatesMap.clear();
+        importDateStore.clear();
 
         // Add multiple codespaces
         LocalDateTime dateTime1 = LocalDateTime.of(2021, 8, 1, 10, 0, 0);
@@ -67,17 +82,97 @@ class ImportDateMapUpdaterTest extends NisabaRouteBuilderIntegrationTestBase {
         updateImportDateMapProducer.sendBody(createEvent("vyg", dateTime3));
 
         // Verify the map is updated
-        assertTrue(importDatesMap.size() >= 3);
-        assertTrue(importDatesMap.containsKey("opp"));
-        assertTrue(importDatesMap.containsKey("flt"));
-        assertTrue(importDatesMap.containsKey("vyg"));
+        assertTrue(importDateStore.size() >= 3);
 
         assertEquals(dateTime1.truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                importDatesMap.get("opp"));
+                importDateStore.getImportDate("opp"));
         assertEquals(dateTime2.truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                importDatesMap.get("flt"));
+                importDateStore.getImportDate("flt"));
         assertEquals(dateTime3.truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                importDatesMap.get("vyg"));
+                importDateStore.getImportDate("vyg"));
+    }
+
+    @Test
+    void testUpdateImportDateMap_ReplayedEvent() throws Exception {
+        context.start();
+
+        importDateStore.clear();
+
+        LocalDateTime dateTime1 = LocalDateTime.of(2021, 8, 1, 10, 0, 0);
+        LocalDateTime dateTime2 = LocalDateTime.of(2021, 8, 2, 11, 0, 0);
+
+        updateImportDateMapProducer.sendBodyAndHeaders(createEvent("opp", dateTime2), Map.of(KafkaConstants.PARTITION, 0, KafkaConstants.OFFSET, 5L));
+        // an older event replayed after a restart is ignored
+        updateImportDateMapProducer.sendBodyAndHeaders(createEvent("opp", dateTime1), Map.of(KafkaConstants.PARTITION, 0, KafkaConstants.OFFSET, 4L));
+
+        assertEquals(dateTime2.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), importDateStore.getImportDate("opp"));
+        assertEquals(5, importDateStore.getSnapshot().position().offset(0));
+    }
+
+    @Test
+    void testUpdateImportDateMapBatch() throws Exception {
+        context.start();
+
+        importDateStore.clear();
+        importHistoryStore.clear();
+
+        LocalDateTime dateTime1 = LocalDateTime.of(2021, 8, 1, 10, 0, 0);
+        LocalDateTime dateTime2 = LocalDateTime.of(2021, 8, 2, 11, 0, 0);
+        LocalDateTime dateTime3 = LocalDateTime.of(2021, 8, 3, 12, 0, 0);
+
+        String position = importDateStore.getSnapshot().position().toString();
+        updateImportDateMapBatchProducer.sendBody(List.of(
+                createEvent("opp", dateTime1),
+                createEvent("flt", dateTime2),
+                createEvent("opp", dateTime3)));
+
+        // a single change is recorded per codespace
+        assertEquals(List.of("flt", "opp"), importDateStore.getChangesSince(position).changes().stream().map(ImportDateChange::codespace).toList());
+
+        // the last event for a codespace in the batch wins
+        assertEquals(dateTime3.truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                importDateStore.getImportDate("opp"));
+        assertEquals(dateTime2.truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                importDateStore.getImportDate("flt"));
+
+        // all the events of the batch are recorded in the history, the most recent first
+        List<ImportHistoryEntry> oppHistory = importHistoryStore.getHistory("opp");
+        assertEquals(2, oppHistory.size());
+        assertEquals("opp_" + dateTime3.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), oppHistory.get(0).importKey());
+        assertEquals("opp_" + dateTime1.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), oppHistory.get(1).importKey());
+    }
+
+    @Test
+    void testUpdateImportDateMapBatchFromKafka() throws Exception {
+        context.start();
+
+        importDateStore.clear();
+        String position = importDateStore.getSnapshot().position().toString();
+
+        LocalDateTime dateTime1 = LocalDateTime.of(2021, 8, 1, 10, 0, 0);
+        LocalDateTime dateTime2 = LocalDateTime.of(2021, 8, 2, 11, 0, 0);
+        LocalDateTime dateTime3 = LocalDateTime.of(2021, 8, 3, 12, 0, 0);
+
+        updateImportDateMapBatchProducer.sendBody(List.of(
+                kafkaExchange(createEvent("opp", dateTime1), 0, 10),
+                kafkaExchange(createEvent("flt", dateTime2), 1, 20),
+                kafkaExchange(createEvent("opp", dateTime2), 0, 11),
+                kafkaExchange(createEvent("opp", dateTime3), 0, 12)));
+
+        assertEquals(dateTime3.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), importDateStore.getImportDate("opp"));
+        ImportDateDelta delta = importDateStore.getChangesSince(position);
+        assertNotNull(delta);
+        assertEquals(List.of("flt", "opp"), delta.changes().stream().map(ImportDateChange::codespace).toList());
+        assertEquals(12, delta.position().offset(0));
+        assertEquals(20, delta.position().offset(1));
+    }
+
+    private Exchange kafkaExchange(NetexImportEvent netexImportEvent, int partition, long offset) {
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody(netexImportEvent);
+        exchange.getIn().setHeader(KafkaConstants.PARTITION, partition);
+        exchange.getIn().setHeader(KafkaConstants.OFFSET, offset);
+        return exchange;
     }
 
     private NetexImportEvent createEvent(String codespace, LocalDateTime importDateTime) {
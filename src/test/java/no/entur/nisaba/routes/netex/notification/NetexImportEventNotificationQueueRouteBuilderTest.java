@@ -25,19 +25,23 @@ import org.apache.camel.EndpointInject;
 import org.apache.camel.Produce;
 import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.AdviceWith;
+import org.apache.camel.builder.NotifyBuilder;
 import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.spi.StateRepository;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.io.ByteArrayInputStream;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import static no.entur.nisaba.Constants.BLOBSTORE_PATH_OUTBOUND;
 import static no.entur.nisaba.Constants.CURRENT_AGGREGATED_NETEX_FILENAME;
@@ -54,9 +58,6 @@ class NetexImportEventNotificationQueueRouteBuilderTest extends NisabaRouteBuild
     @Produce("google-pubsub:{{marduk.pubsub.project.id}}:NetexExportNotificationQueue")
     protected ProducerTemplate exportNotificationQueueProducerTemplate;
 
-    @Produce("direct:parseCreatedAttribute")
-    protected ProducerTemplate parseCreatedAttribute;
-
     @Produce("direct:findChouetteImportKey")
     protected ProducerTemplate findChouetteImportKey;
 
@@ -69,12 +70,13 @@ class NetexImportEventNotificationQueueRouteBuilderTest extends NisabaRouteBuild
     @EndpointInject("mock:nisabaEventTopic")
     protected MockEndpoint mockNisabaEventTopic;
 
-    @EndpointInject("mock:checkCreatedAttribute")
-    protected MockEndpoint mockCheckCreatedAttribute;
-
     @EndpointInject("mock:checkFindChouetteImportKey")
     protected MockEndpoint mockCheckFindChouetteImportKey;
 
+    @Autowired
+    @Qualifier("netexExportFingerprintRepo")
+    protected StateRepository<String, String> netexExportFingerprintRepo;
+
 
     @Test
     void testNotification() throws Exception {
@@ -99,16 +101,66 @@ class NetexImportEventNotificationQueueRouteBuilderTest extends NisabaRouteBuild
     }
 
     @Test
-    void testParseCreatedAttribute() throws Exception {
+    void testUnchangedExportIsNotScannedAgain() throws Exception {
+
+        AdviceWith.adviceWith(context, "netex-export-notification-queue", a -> a.weaveByToUri("direct:retrieveDatasetCreationTime").replace().to("mock:retrieveDatasetCreationTime"));
+        AdviceWith.adviceWith(context, "notify-consumers", a -> a.weaveById("to-kafka-topic-event").replace().to("mock:nisabaEventTopic"));
+
+        LocalDateTime now = LocalDateTime.now();
+        mockRetrieveDatasetCreationTime.whenAnyExchangeReceived(exchange -> exchange.getIn().setHeader(Constants.DATASET_LATEST_CREATION_TIME, now));
+
+        mardukInMemoryBlobStoreRepository.uploadBlob(BLOBSTORE_PATH_OUTBOUND + "netex/rb_" + CODESPACE_AVI + "-" + CURRENT_AGGREGATED_NETEX_FILENAME,
+                getClass().getResourceAsStream("/no/entur/nisaba/netex/import/rb_avi-aggregated-netex.zip"));
+
+        context.start();
+
+        NotifyBuilder firstNotification = new NotifyBuilder(context).fromRoute("netex-export-notification-queue").whenCompleted(1).create();
+        exportNotificationQueueProducerTemplate.sendBody(CODESPACE_AVI);
+        Assertions.assertTrue(firstNotification.matches(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, mockRetrieveDatasetCreationTime.getReceivedCounter());
+        Assertions.assertEquals(1, mockNisabaEventTopic.getReceivedCounter());
+        String fingerprint = netexExportFingerprintRepo.getState(CODESPACE_AVI);
+        Assertions.assertNotNull(fingerprint);
+
+        // same export file, same fingerprint: the notification is skipped before the archive is downloaded and scanned
+        NotifyBuilder secondNotification = new NotifyBuilder(context).fromRoute("netex-export-notification-queue").whenCompleted(1).create();
+        exportNotificationQueueProducerTemplate.sendBody(CODESPACE_AVI);
+        Assertions.assertTrue(secondNotification.matches(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, mockRetrieveDatasetCreationTime.getReceivedCounter());
+        Assertions.assertEquals(1, mockNisabaEventTopic.getReceivedCounter());
+        Assertions.assertEquals(fingerprint, netexExportFingerprintRepo.getState(CODESPACE_AVI));
+    }
+
+    @Test
+    void testFailedExportIsNotRegistered() throws Exception {
 
-        AdviceWith.adviceWith(context, "parse-created-attribute", a -> a.weaveAddLast().to("mock:checkCreatedAttribute"));
+        AdviceWith.adviceWith(context, "netex-export-notification-queue", a -> a.weaveByToUri("direct:retrieveDatasetCreationTime").replace().to("mock:retrieveDatasetCreationTime"));
         AdviceWith.adviceWith(context, "notify-consumers", a -> a.weaveById("to-kafka-topic-event").replace().to("mock:nisabaEventTopic"));
 
-        mockCheckCreatedAttribute.expectedBodiesReceived(LocalDateTime.parse("2021-04-13T09:09:45.409"));
+        LocalDateTime now = LocalDateTime.now();
+        mockRetrieveDatasetCreationTime.whenAnyExchangeReceived(exchange -> exchange.getIn().setHeader(Constants.DATASET_LATEST_CREATION_TIME, now));
+        mockNisabaEventTopic.whenAnyExchangeReceived(exchange -> {
+            throw new IllegalStateException("Kafka unavailable");
+        });
+
+        mardukInMemoryBlobStoreRepository.uploadBlob(BLOBSTORE_PATH_OUTBOUND + "netex/rb_" + CODESPACE_AVI + "-" + CURRENT_AGGREGATED_NETEX_FILENAME,
+                getClass().getResourceAsStream("/no/entur/nisaba/netex/import/rb_avi-aggregated-netex.zip"));
 
         context.start();
-        parseCreatedAttribute.sendBody(IOUtils.toString(getClass().getResourceAsStream("/no/entur/nisaba/netex/import/_AVI_shared_data.xml"), StandardCharsets.UTF_8));
-        mockCheckCreatedAttribute.assertIsSatisfied();
+
+        NotifyBuilder failedNotification = new NotifyBuilder(context).fromRoute("netex-export-notification-queue").whenFailed(1).create();
+        exportNotificationQueueProducerTemplate.sendBody(CODESPACE_AVI);
+        Assertions.assertTrue(failedNotification.matches(30, TimeUnit.SECONDS));
+        Assertions.assertNull(netexExportFingerprintRepo.getState(CODESPACE_AVI));
+
+        // the fingerprint was not registered: the next notification for the same export file is processed again
+        mockNisabaEventTopic.whenAnyExchangeReceived(exchange -> {
+        });
+        NotifyBuilder completedNotification = new NotifyBuilder(context).fromRoute("netex-export-notification-queue").whenCompleted(1).create();
+        exportNotificationQueueProducerTemplate.sendBody(CODESPACE_AVI);
+        Assertions.assertTrue(completedNotification.matches(30, TimeUnit.SECONDS));
+        Assertions.assertTrue(mockNisabaEventTopic.getReceivedCounter() >= 2);
+        Assertions.assertNotNull(netexExportFingerprintRepo.getState(CODESPACE_AVI));
     }
 
     @Test
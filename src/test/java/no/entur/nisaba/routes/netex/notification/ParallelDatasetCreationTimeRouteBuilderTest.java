@@ -0,0 +1,59 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.routes.netex.notification;
+
+import no.entur.nisaba.NisabaRouteBuilderIntegrationTestBase;
+import no.entur.nisaba.TestApp;
+import org.apache.camel.ProducerTemplate;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.TreeSet;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = TestApp.class,
+        properties = {"nisaba.netex.creation.time.parallel.enabled=true",
+                "nisaba.netex.creation.time.parallel.pool.size=2",
+                "nisaba.netex.creation.time.parallel.queue.size=1",
+                // small prefix that forces a fallback to a full read of the entries
+                "nisaba.netex.creation.time.prefix.max.size=256"})
+class ParallelDatasetCreationTimeRouteBuilderTest extends NisabaRouteBuilderIntegrationTestBase {
+
+    @Test
+    void testRetrieveDatasetCreationTimeInParallel() throws Exception {
+
+        ProducerTemplate retrieveDatasetCreationTimeTemplate = context.createProducerTemplate();
+
+        context.start();
+
+        byte[] zipContent = IOUtils.toByteArray(getClass().getResourceAsStream("/no/entur/nisaba/netex/import/rb_avi-aggregated-netex.zip"));
+        Object result = retrieveDatasetCreationTimeTemplate.requestBody("direct:retrieveDatasetCreationTime", zipContent);
+
+        Assertions.assertInstanceOf(TreeSet.class, result);
+        @SuppressWarnings("unchecked")
+        TreeSet<LocalDateTime> creationTimes = (TreeSet<LocalDateTime>) result;
+
+        TreeSet<LocalDateTime> expected = new TreeSet<>();
+        expected.add(LocalDateTime.parse("2021-04-01T09:09:45.409"));
+        expected.add(LocalDateTime.parse("2021-04-05T09:09:45.409"));
+        expected.add(LocalDateTime.parse("2021-04-13T09:09:45.409"));
+        Assertions.assertEquals(expected, creationTimes);
+    }
+
+}
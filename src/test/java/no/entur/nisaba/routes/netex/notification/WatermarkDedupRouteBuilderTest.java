@@ -0,0 +1,127 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package no.entur.nisaba.routes.netex.notification;
+
+import no.entur.nisaba.NisabaRouteBuilderIntegrationTestBase;
+import no.entur.nisaba.TestApp;
+import no.entur.nisaba.event.KafkaWatermarkStateRepository;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.AdviceWith;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static no.entur.nisaba.Constants.DATASET_CODESPACE;
+import static no.entur.nisaba.Constants.DATASET_LATEST_CREATION_TIME;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = TestApp.class,
+        properties = "nisaba.dedup.mode=" + NetexImportNotificationQueueRouteBuilder.DEDUP_MODE_WATERMARK)
+class WatermarkDedupRouteBuilderTest extends NisabaRouteBuilderIntegrationTestBase {
+
+    private static final String CODESPACE_AVI = "avi";
+    private static final String WATERMARK_TOPIC = "rutedata-dataset-import-watermark-dev";
+
+    /**
+     * Watermark repository backed by mock Kafka clients on an empty single-partition topic.
+     */
+    @TestConfiguration
+    static class WatermarkTestConfig {
+
+        @Bean
+        MockProducer<String, String> watermarkProducer() {
+            return new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Bean(value = "netexImportWatermarkRepo", initMethod = "start", destroyMethod = "stop")
+        KafkaWatermarkStateRepository netexImportWatermarkRepo(MockProducer<String, String> watermarkProducer) {
+            MockConsumer<String, String> watermarkConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+            TopicPartition partition = new TopicPartition(WATERMARK_TOPIC, 0);
+            watermarkConsumer.updatePartitions(WATERMARK_TOPIC, List.of(new PartitionInfo(WATERMARK_TOPIC, 0, null, null, null)));
+            watermarkConsumer.updateBeginningOffsets(Map.of(partition, 0L));
+            watermarkConsumer.updateEndOffsets(Map.of(partition, 0L));
+            return new KafkaWatermarkStateRepository(WATERMARK_TOPIC, Duration.ofSeconds(10), new Properties(), new Properties()) {
+                @Override
+                protected Consumer<String, String> createConsumer() {
+                    return watermarkConsumer;
+                }
+
+                @Override
+                protected Producer<String, String> createProducer() {
+                    return watermarkProducer;
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private MockProducer<String, String> watermarkProducer;
+
+    @Produce("direct:notifyConsumersIfNew")
+    protected ProducerTemplate notifyConsumersIfNew;
+
+    @EndpointInject("mock:notifyConsumers")
+    protected MockEndpoint mockNotifyConsumers;
+
+    @Test
+    void testSkipDatasetsAtOrBelowWatermark() throws Exception {
+
+        AdviceWith.adviceWith(context, "notify-consumers-if-new", a -> a.weaveByToUri("direct:notifyConsumers").replace().to("mock:notifyConsumers"));
+
+        LocalDateTime creationTime = LocalDateTime.parse("2021-04-13T09:09:45.409");
+        mockNotifyConsumers.expectedHeaderValuesReceivedInAnyOrder(DATASET_LATEST_CREATION_TIME, creationTime, creationTime.plusDays(1));
+
+        context.start();
+        notifyConsumersIfNew.sendBodyAndHeaders("", Map.of(DATASET_CODESPACE, CODESPACE_AVI, DATASET_LATEST_CREATION_TIME, creationTime));
+        // same dataset
+        notifyConsumersIfNew.sendBodyAndHeaders("", Map.of(DATASET_CODESPACE, CODESPACE_AVI, DATASET_LATEST_CREATION_TIME, creationTime));
+        // older dataset
+        notifyConsumersIfNew.sendBodyAndHeaders("", Map.of(DATASET_CODESPACE, CODESPACE_AVI, DATASET_LATEST_CREATION_TIME, creationTime.minusDays(1)));
+        // more recent dataset
+        notifyConsumersIfNew.sendBodyAndHeaders("", Map.of(DATASET_CODESPACE, CODESPACE_AVI, DATASET_LATEST_CREATION_TIME, creationTime.plusDays(1)));
+
+        mockNotifyConsumers.assertIsSatisfied();
+
+        // the watermark is published to the topic shared by all instances
+        Assertions.assertEquals(List.of(
+                        new ProducerRecord<>(WATERMARK_TOPIC, CODESPACE_AVI, String.valueOf(creationTime.toInstant(ZoneOffset.UTC).toEpochMilli())),
+                        new ProducerRecord<>(WATERMARK_TOPIC, CODESPACE_AVI, String.valueOf(creationTime.plusDays(1).toInstant(ZoneOffset.UTC).toEpochMilli()))),
+                watermarkProducer.history());
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+
+package no.entur.nisaba.services;
+
+import no.entur.nisaba.blobstore.NisabaInMemoryBlobStoreRepository;
+import no.entur.nisaba.event.NetexImportEventKeyFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class NisabaExchangeBlobStoreServiceTest {
+
+    private static final String CONTAINER_NAME = "nisaba-exchange";
+    private static final Duration LISTING_TTL = Duration.ofMinutes(10);
+    private static final LocalDateTime CREATION_TIME = LocalDateTime.parse("2021-04-21T11:51:59");
+
+    private Map<String, byte[]> blobs;
+    private CountingBlobStoreRepository repository;
+    private Instant now;
+    private NisabaExchangeBlobStoreService service;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, Map<String, byte[]>> blobsInContainers = new HashMap<>();
+        blobs = new HashMap<>();
+        blobsInContainers.put(CONTAINER_NAME, blobs);
+        repository = new CountingBlobStoreRepository(blobsInContainers);
+        now = Instant.parse("2021-04-21T12:00:00Z");
+        service = new NisabaExchangeBlobStoreService(CONTAINER_NAME, repository, LISTING_TTL) {
+            @Override
+            Instant now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    void testListBlobNamesByPrefix() {
+        addImportedDataset("avi", CREATION_TIME);
+        addImportedDataset("avio", CREATION_TIME);
+        blobs.put("outbound/netex/rb_avi-aggregated-netex.zip", new byte[0]);
+
+        assertEquals(Set.of(importedDatasetName("avi", CREATION_TIME)), repository.listBlobNames("imported/avi/"));
+    }
+
+    @Test
+    void testFindImportedDatasetKeyFromCachedListing() {
+        addImportedDataset("avi", CREATION_TIME);
+        addImportedDataset("avi", CREATION_TIME.plusDays(1));
+
+        assertEquals(importKey("avi", CREATION_TIME.plusDays(1)),
+                service.findImportedDatasetKey("avi", List.of(CREATION_TIME, CREATION_TIME.plusDays(1), CREATION_TIME.plusDays(2))));
+        assertEquals(importKey("avi", CREATION_TIME),
+                service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+        assertEquals(1, repository.listings);
+    }
+
+    @Test
+    void testRelistWhenCachedListingMisses() {
+        addImportedDataset("avi", CREATION_TIME);
+        assertEquals(importKey("avi", CREATION_TIME), service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+
+        // a dataset imported after the listing was cached
+        addImportedDataset("avi", CREATION_TIME.plusDays(1));
+        assertEquals(importKey("avi", CREATION_TIME.plusDays(1)), service.findImportedDatasetKey("avi", List.of(CREATION_TIME.plusDays(1))));
+        assertEquals(2, repository.listings);
+
+        // a dataset that was never imported is looked up once in the cache and once in a new listing
+        assertNull(service.findImportedDatasetKey("avi", List.of(CREATION_TIME.plusDays(2))));
+        assertEquals(3, repository.listings);
+    }
+
+    @Test
+    void testRelistWhenCachedListingExpires() {
+        addImportedDataset("avi", CREATION_TIME);
+        assertEquals(importKey("avi", CREATION_TIME), service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+
+        now = now.plus(LISTING_TTL);
+        assertEquals(importKey("avi", CREATION_TIME), service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+        assertEquals(1, repository.listings);
+
+        // the listing expires, the removed dataset is no longer found
+        blobs.remove(importedDatasetName("avi", CREATION_TIME));
+        now = now.plusSeconds(1);
+        assertNull(service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+        assertEquals(2, repository.listings);
+    }
+
+    @Test
+    void testListingsAreCachedPerCodespace() {
+        addImportedDataset("avi", CREATION_TIME);
+        addImportedDataset("rut", CREATION_TIME);
+
+        assertEquals(importKey("avi", CREATION_TIME), service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+        assertEquals(importKey("rut", CREATION_TIME), service.findImportedDatasetKey("rut", List.of(CREATION_TIME)));
+        assertEquals(importKey("avi", CREATION_TIME), service.findImportedDatasetKey("avi", List.of(CREATION_TIME)));
+        assertEquals(2, repository.listings);
+    }
+
+    private void addImportedDataset(String codespace, LocalDateTime creationTime) {
+        blobs.put(importedDatasetName(codespace, creationTime), new byte[0]);
+    }
+
+    private static String importedDatasetName(String codespace, LocalDateTime creationTime) {
+        return "imported/" + codespace + '/' + importKey(codespace, creationTime) + ".zip";
+    }
+
+    private static String importKey(String codespace, LocalDateTime creationTime) {
+        return NetexImportEventKeyFactory.createNetexImportEventKey(codespace, creationTime);
+    }
+
+    private static final class CountingBlobStoreRepository extends NisabaInMemoryBlobStoreRepository {
+
+        private int listings;
+
+        CountingBlobStoreRepository(Map<String, Map<String, byte[]>> blobsInContainers) {
+            super(blobsInContainers);
+        }
+
+        @Override
+        public Set<String> listBlobNames(String prefix) {
+            listings++;
+            return super.listBlobNames(prefix);
+        }
+    }
+}